@@ -97,9 +97,12 @@ public class BSX extends Plugin
   }
 
   public int read(byte[] b) throws IOException {
-    int len;
-    len = source.read(b);
-    len = parse(b, len);
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    len = source.read(b, off, len);
+    len = parse(b, off, len);
     return len;
   }
 
@@ -107,6 +110,10 @@ public class BSX extends Plugin
     source.write(b);
   }
 
+  public void write(byte[] b, int off, int len) throws IOException {
+    source.write(b, off, len);
+  }
+
   private void write(String s) throws IOException {
     write(s.getBytes());
   }
@@ -162,13 +169,18 @@ public class BSX extends Plugin
   /**
    * parse the input buffer
    @param b      input buffer byte array
+   @param off    start of the valid bytes in buffer
    @param length count of valid bytes in buffer
    @return       new length of valid bytes in buffer
    */
-  protected int parse(byte[] b, int length) throws IOException {
+  protected int parse(byte[] b, int off, int length) throws IOException {
     int index,resindex;
 
-    for (index = resindex = 0; index < length; index++) {
+    // room for the data plus a pending command and identifier
+    if (res.length < length + cmd.length + id.length)
+      res = new byte[length + cmd.length + id.length];
+
+    for (index = off, resindex = 0; index < off + length; index++) {
       switch (state) {
         case 0: // read until next @
           if ((char) b[index] == '@') {
@@ -386,7 +398,7 @@ public class BSX extends Plugin
           break;
       }
     }
-    System.arraycopy(res, 0, b, 0, resindex);
+    System.arraycopy(res, 0, b, off, resindex);
     return resindex;
   }
 
@@ -26,7 +26,7 @@
 package de.mud.jta.plugin;
 
 import de.mud.jta.FilterPlugin;
-import de.mud.jta.Plugin;
+import de.mud.jta.FilterPluginAdapter;
 import de.mud.jta.PluginBus;
 import de.mud.jta.VisualPlugin;
 
@@ -51,8 +51,8 @@ import java.io.IOException;
  * @author Matthias L. Jugel, Marcus Mei�ner
  */
 
-public class EInput01 extends Plugin
-        implements FilterPlugin, VisualPlugin {
+public class EInput01 extends FilterPluginAdapter
+        implements VisualPlugin {
 
   protected JTextArea input;
   protected JButton send;
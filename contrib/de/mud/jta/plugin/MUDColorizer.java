@@ -266,11 +266,15 @@ public class MUDColorizer extends Plugin
   private int pos = 0;
 
   public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
     // empty the buffer before reading more data
     if (buffer != null) {
-      int amount = (buffer.length - pos) <= b.length ?
-              buffer.length - pos : b.length;
-      System.arraycopy(buffer, pos, b, 0, amount);
+      int amount = (buffer.length - pos) <= len ?
+              buffer.length - pos : len;
+      System.arraycopy(buffer, pos, b, off, amount);
       if (pos + amount < buffer.length) {
         pos += amount;
       } else {
@@ -281,14 +285,15 @@ public class MUDColorizer extends Plugin
     }
 
     // now we are sure the buffer is empty and read on
-    int n = source.read(b);
+    // transpose() colors into a fixed size buffer, so read in small pieces
+    int n = source.read(b, off, len > 256 ? 256 : len);
     if (n > 0) {
       byte[] tmp = new byte[n];
-      System.arraycopy(b, 0, tmp, 0, n);
+      System.arraycopy(b, off, tmp, 0, n);
       buffer = transpose(tmp);
       if (buffer != null && buffer.length > 0) {
-        int amount = buffer.length <= b.length ? buffer.length : b.length;
-        System.arraycopy(buffer, 0, b, 0, amount);
+        int amount = buffer.length <= len ? buffer.length : len;
+        System.arraycopy(buffer, 0, b, off, amount);
         pos = n = amount;
         if (amount == buffer.length) {
           buffer = null;
@@ -301,10 +306,14 @@ public class MUDColorizer extends Plugin
   }
 
   public void write(byte[] b) throws IOException {
-    if (b[b.length - 1] == '\n') {
+    write(b, 0, b.length);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len > 0 && b[off + len - 1] == '\n') {
       writeprompt = true;
       promptwritten = false;
     }
-    source.write(b);
+    source.write(b, off, len);
   }
 }
@@ -80,6 +80,11 @@ public class FlashTerminal implements VDUDisplay, Runnable {
     // dont do anything... or? 
   }
 
+  public void scrollLines(int top, int bottom, int n) {
+    // the client has no way to move lines, so send the whole region
+    buffer.markLine(top, bottom - top + 1);
+  }
+
   protected void disconnect() {
     // do nothing by default
   }
@@ -254,24 +259,28 @@ public class FlashTerminal implements VDUDisplay, Runnable {
     Element line = new Element("line");
     line.setAttribute("row", "" + l);
 
+    int cells[] = buffer.getCells(base + l);
+    char chars[] = new char[buffer.width];
+
     // determine the maximum of characters we can print in one go
     for (int c = 0; c < buffer.width; c++) {
       int addr = 0;
-      int currAttr = buffer.charAttributes[base + l][c];
-
-      while ((c + addr < buffer.width) &&
-              ((buffer.charArray[base + l][c + addr] < ' ') ||
-              (buffer.charAttributes[base + l][c + addr] == currAttr))) {
-        if (buffer.charArray[base + l][c + addr] < ' ') {
-          buffer.charArray[base + l][c + addr] = ' ';
-          buffer.charAttributes[base + l][c + addr] = 0;
-          continue;
-        }
-        addr++;
+      // control characters are shown as normal blanks
+      int currAttr = VDUBuffer.cellChar(cells[c]) < ' ' ?
+              0 : VDUBuffer.cellAttributes(cells[c]);
+
+      while (c + addr < buffer.width) {
+        char ch = VDUBuffer.cellChar(cells[c + addr]);
+        if (ch < ' ') {
+          if (currAttr != 0) break;
+          ch = ' ';
+        } else if (VDUBuffer.cellAttributes(cells[c + addr]) != currAttr)
+          break;
+        chars[addr++] = ch;
       }
 
       if (addr > 0) {
-        String tmp = new String(buffer.charArray[base + l], c, addr);
+        String tmp = new String(chars, 0, addr);
         // create new text node and make sure we insert &nbsp; (160)
         Text text = new Text(tmp.replace(' ', (char) 160));
         Element chunk = null;
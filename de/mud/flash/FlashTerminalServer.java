@@ -138,6 +138,10 @@ public class FlashTerminalServer implements Runnable {
           System.err.println("FlashTerminalServer: writing " + Integer.toHexString(b[0]) + " " + new String(b));
         os.write(b);
       }
+
+      public void write(byte[] b, int off, int len) throws IOException {
+        os.write(b, off, len);
+      }
     };
 
     try {
@@ -177,7 +181,7 @@ public class FlashTerminalServer implements Runnable {
       try {
         n = telnet.negotiate(b);	// we still have stuff buffered ...
         if (n > 0)
-          emulation.putString(new String(b, 0, n));
+          emulation.putBytes(b, 0, n);
 
         while (true) {
           n = is.read(b);
@@ -191,7 +195,7 @@ public class FlashTerminalServer implements Runnable {
           while (true) {
             n = telnet.negotiate(b);
             if (n > 0)
-              emulation.putString(new String(b, 0, n));
+              emulation.putBytes(b, 0, n);
             if (n == -1) // buffer empty.
               break;
           }
@@ -0,0 +1,56 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.jta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A filter plugin that can pass pooled byte buffers up the chain instead
+ * of filling an array owned by the caller. The plugin loader hands out the
+ * buffer pool when buffer pipelining is enabled; without a pool the plugin
+ * works through the array methods of FilterPlugin only.
+ *
+ * @version $Id$
+ * @see BufferPool
+ */
+public interface BufferFilterPlugin extends FilterPlugin {
+  /**
+   * Set the pool to take buffers from, or null to stop using buffers.
+   * @param pool the buffer pool
+   */
+  public void setBufferPool(BufferPool pool);
+
+  /**
+   * Read the next block of data from the back end. The returned buffer
+   * holds the data between its position and limit and belongs to the
+   * caller, who has to release it to the pool when done. An empty buffer
+   * means no data is available yet.
+   * @return the buffer or null at the end of the stream
+   */
+  public ByteBuffer readBuffer()
+    throws IOException;
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.jta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The buffer pool hands out byte buffers of a fixed size to filter plugins
+ * that exchange buffers instead of arrays. A buffer taken with get() or
+ * returned by read() belongs to the caller until it is either passed on
+ * to the next plugin or given back using release().
+ *
+ * @version $Id$
+ * @see BufferFilterPlugin
+ */
+public class BufferPool {
+  /** the maximum number of unused buffers kept for reuse */
+  private final static int MAX_FREE = 8;
+
+  private int size;
+  private boolean direct;
+  private ByteBuffer[] free = new ByteBuffer[MAX_FREE];
+  private int freeCount = 0;
+
+  /** arrays used to read from plugins that only know about arrays */
+  private byte[][] scratch = new byte[MAX_FREE][];
+  private int scratchCount = 0;
+
+  /**
+   * Create a new buffer pool.
+   * @param size the size of each buffer in bytes
+   * @param direct true for direct buffers, false for heap buffers
+   */
+  public BufferPool(int size, boolean direct) {
+    if (size <= 0)
+      throw new IllegalArgumentException("buffer size must be positive");
+    this.size = size;
+    this.direct = direct;
+  }
+
+  /** @return the size of the buffers in this pool */
+  public int getBufferSize() {
+    return size;
+  }
+
+  /** @return true if the pool hands out direct buffers */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Get an empty buffer from the pool, ready to be filled.
+   * @return a cleared buffer
+   */
+  public synchronized ByteBuffer get() {
+    if (freeCount > 0) {
+      ByteBuffer b = free[--freeCount];
+      free[freeCount] = null;
+      b.clear();
+      return b;
+    }
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  /**
+   * Give a buffer back to the pool. The buffer must not be used anymore
+   * after it was released.
+   * @param b the buffer, may be null
+   */
+  public synchronized void release(ByteBuffer b) {
+    if (b != null && b.capacity() == size && b.isDirect() == direct
+        && freeCount < MAX_FREE)
+      free[freeCount++] = b;
+  }
+
+  /**
+   * Read the next block of data from a filter plugin. Plugins that
+   * implement BufferFilterPlugin hand over their own buffer, from all
+   * others the data is read into a buffer of this pool.
+   * @param source the plugin to read from
+   * @return a buffer with the data between position and limit, or null
+   *         at the end of the stream
+   */
+  public ByteBuffer read(FilterPlugin source) throws IOException {
+    if (source instanceof BufferFilterPlugin)
+      return ((BufferFilterPlugin) source).readBuffer();
+
+    ByteBuffer b = get();
+    int n;
+    try {
+      if (b.hasArray()) {
+        n = source.read(b.array(), b.arrayOffset(), size);
+        if (n > 0) b.position(n);
+      } else {
+        // each reader gets its own array, the read may block for long
+        byte[] tmp = getScratch();
+        try {
+          n = source.read(tmp, 0, size);
+          if (n > 0) b.put(tmp, 0, n);
+        } finally {
+          releaseScratch(tmp);
+        }
+      }
+    } catch (IOException e) {
+      release(b);
+      throw e;
+    }
+    if (n < 0) {
+      release(b);
+      return null;
+    }
+    b.flip();
+    return b;
+  }
+
+  private synchronized byte[] getScratch() {
+    if (scratchCount == 0) return new byte[size];
+    byte[] tmp = scratch[--scratchCount];
+    scratch[scratchCount] = null;
+    return tmp;
+  }
+
+  private synchronized void releaseScratch(byte[] tmp) {
+    if (scratchCount < MAX_FREE)
+      scratch[scratchCount++] = tmp;
+  }
+}
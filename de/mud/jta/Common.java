@@ -67,6 +67,23 @@ public class Common extends PluginLoader {
       System.err.println(e);
     }
 
+    // let the filters pass byte buffers along instead of arrays
+    String pipeline = config.getProperty("pipeline");
+    if ("heap".equals(pipeline) || "direct".equals(pipeline)) {
+      int size = 16384;
+      String tmp = config.getProperty("pipeline.bufferSize");
+      if (tmp != null)
+        try {
+          size = Integer.parseInt(tmp);
+        } catch (NumberFormatException ne) {
+          System.err.println("jta: pipeline.bufferSize is not a number: "
+                             + tmp);
+        }
+      if (size > 0)
+        setBufferPool(new BufferPool(size, "direct".equals(pipeline)));
+    } else if (pipeline != null && !"array".equals(pipeline))
+      System.err.println("jta: unknown pipeline mode '" + pipeline + "'");
+
     Vector names = split(config.getProperty("plugins"), ',');
     if (names == null) {
       System.err.println("jta: no plugins found! aborting ...");
@@ -31,6 +31,9 @@ import java.io.IOException;
  * the communication between front end and back end plugins. Filters and
  * protocol handlers are a good example.
  * <P>
+ * Plugins that only handle whole arrays can extend FilterPluginAdapter,
+ * which adds the methods reading and writing parts of an array.
+ * <P>
  * <B>Maintainer:</B> Matthias L. Jugel
  *
  * @version $Id$
@@ -56,10 +59,32 @@ public interface FilterPlugin {
   public int read(byte[] b)
     throws IOException;
 
+  /**
+   * Read a block of data from the back end into a part of the buffer.
+   * A filter that can work on a part of the buffer should implement
+   * read(byte[]) by calling this method with the whole buffer.
+   * @param b the buffer to read the data into
+   * @param off the offset in the buffer where to put the data
+   * @param len the maximum amount of bytes to read
+   * @return the amount of bytes actually read
+   */
+  public int read(byte[] b, int off, int len)
+    throws IOException;
+
   /**
    * Write a block of data to the back end.
    * @param b the buffer to be sent
    */
   public void write(byte[] b)
     throws IOException;
+
+  /**
+   * Write a part of a buffer to the back end. The buffer may be reused by
+   * the caller once this method returns.
+   * @param b the buffer containing the data
+   * @param off the offset of the data in the buffer
+   * @param len the amount of bytes to send
+   */
+  public void write(byte[] b, int off, int len)
+    throws IOException;
 }
@@ -0,0 +1,83 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.jta;
+
+import java.io.IOException;
+
+/**
+ * A base class for filter plugins that only handle whole arrays. It
+ * implements the ranged read() and write() methods of FilterPlugin on
+ * top of read(byte[]) and write(byte[]), copying the data through an
+ * array that is kept for the next call. Whole arrays are passed on
+ * without a copy. Plugins written before the ranged methods existed only
+ * need to extend this class instead of Plugin.
+ * <P>
+ * Plugins that can work on a part of an array directly should implement
+ * the ranged methods themselves and avoid the copy.
+ *
+ * @version $Id$
+ * @see FilterPlugin
+ */
+public abstract class FilterPluginAdapter extends Plugin
+        implements FilterPlugin {
+
+  private byte[] readBuffer = new byte[0];
+  private byte[] writeBuffer = new byte[0];
+  /** reading and writing are usually done by different threads */
+  private final Object readLock = new Object(), writeLock = new Object();
+
+  /**
+   * Create a new filter plugin.
+   * @param bus the plugin bus
+   * @param id the unique plugin id
+   */
+  public FilterPluginAdapter(PluginBus bus, String id) {
+    super(bus, id);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off == 0 && len == b.length) return read(b);
+    synchronized (readLock) {
+      // read(byte[]) fills up to the length of the array
+      if (readBuffer.length != len) readBuffer = new byte[len];
+      int n = read(readBuffer);
+      if (n > 0) System.arraycopy(readBuffer, 0, b, off, n);
+      return n;
+    }
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (off == 0 && len == b.length) {
+      write(b);
+      return;
+    }
+    synchronized (writeLock) {
+      if (writeBuffer.length != len) writeBuffer = new byte[len];
+      System.arraycopy(b, off, writeBuffer, 0, len);
+      write(writeBuffer);
+    }
+  }
+}
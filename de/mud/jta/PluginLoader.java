@@ -57,6 +57,9 @@ public class PluginLoader implements PluginBus {
 
   private Map plugins;
 
+  /** the buffers used by the filters, null if they exchange arrays */
+  private BufferPool bufferPool = null;
+
   /**
    * Create new plugin loader and set up with default plugin path.
    */
@@ -100,6 +103,8 @@ public class PluginLoader implements PluginBus {
 
     // configure the filter plugins
     if (plugin instanceof FilterPlugin) {
+      if (plugin instanceof BufferFilterPlugin)
+        ((BufferFilterPlugin) plugin).setBufferPool(bufferPool);
       if (filter.size() > 0)
         ((FilterPlugin) plugin)
                 .setFilterSource((FilterPlugin) filter.get(filter.size() - 1));
@@ -125,6 +130,8 @@ public class PluginLoader implements PluginBus {
       if(filter.contains(oldPlugin)) {
         int index = filter.indexOf(oldPlugin);
         filter.set(index, plugin);
+        if (plugin instanceof BufferFilterPlugin)
+          ((BufferFilterPlugin) plugin).setBufferPool(bufferPool);
         ((FilterPlugin)plugin).setFilterSource(((FilterPlugin)oldPlugin).getFilterSource());
         if(index < filter.size() - 1) {
           ((FilterPlugin)filter.get(index + 1)).setFilterSource((FilterPlugin)plugin);
@@ -134,6 +141,30 @@ public class PluginLoader implements PluginBus {
     return plugin;
   }
 
+  /**
+   * Let the filter plugins exchange byte buffers taken from the pool
+   * instead of arrays. Filters that implement BufferFilterPlugin read the
+   * buffer of their source and hand it on, so data may travel the whole
+   * chain without being copied. Other filters are still called through
+   * the array methods. The pool is set on the filters already loaded
+   * and on all that are added later.
+   * @param pool the buffer pool, or null to use arrays only
+   */
+  public void setBufferPool(BufferPool pool) {
+    bufferPool = pool;
+    for (int i = 0; i < filter.size(); i++)
+      if (filter.get(i) instanceof BufferFilterPlugin)
+        ((BufferFilterPlugin) filter.get(i)).setBufferPool(pool);
+  }
+
+  /**
+   * Get the buffer pool used by the filter plugins.
+   * @return the pool or null if the filters exchange arrays
+   */
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
   /**
    * Load a plugin by cycling through the plugin path.
    * @param name the class name of the plugin
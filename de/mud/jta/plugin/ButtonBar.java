@@ -26,7 +26,7 @@
 package de.mud.jta.plugin;
 
 import de.mud.jta.FilterPlugin;
-import de.mud.jta.Plugin;
+import de.mud.jta.FilterPluginAdapter;
 import de.mud.jta.PluginBus;
 import de.mud.jta.PluginConfig;
 import de.mud.jta.VisualPlugin;
@@ -128,8 +128,8 @@ import java.util.Map;
  * @version $Id$
  * @author  Matthias L. Jugel, Marcus Mei�ner
  */
-public class ButtonBar extends Plugin
-        implements FilterPlugin, VisualPlugin, ActionListener, ListSelectionListener {
+public class ButtonBar extends FilterPluginAdapter
+        implements VisualPlugin, ActionListener, ListSelectionListener {
 
   /** the panel that contains the buttons and input fields */
   protected JPanel panel = new JPanel();
@@ -382,9 +382,13 @@ public class Capture extends Plugin
    * @param b the buffer to store data into
    */
   public int read(byte[] b) throws IOException {
-    int size = source.read(b);
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    int size = source.read(b, off, len);
     if (captureEnabled && size > 0) {
-      String tmp = new String(b, 0, size);
+      String tmp = new String(b, off, size);
       textArea.append(tmp);
     }
     return size;
@@ -395,10 +399,14 @@ public class Capture extends Plugin
    * @param b the buffer with data to write
    */
   public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
     if (captureEnabled) {
-      textArea.append(new String(b));
+      textArea.append(new String(b, off, len));
     }
-    source.write(b);
+    source.write(b, off, len);
   }
 
   /**
@@ -0,0 +1,301 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.jta.plugin;
+
+import de.mud.jta.BufferFilterPlugin;
+import de.mud.jta.BufferPool;
+import de.mud.jta.FilterPlugin;
+import de.mud.jta.Plugin;
+import de.mud.jta.PluginBus;
+import de.mud.jta.PluginConfig;
+import de.mud.jta.event.ConfigurationListener;
+import de.mud.jta.event.OnlineStatus;
+import de.mud.jta.event.SocketListener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The NIO socket plugin is a drop-in replacement for the socket plugin.
+ * It reads from a socket channel into a large direct buffer and hands
+ * that out in pieces of whatever size the plugin above asks for, so bulk
+ * output needs only one system call per buffer full instead of one per
+ * terminal read. Nagle's algorithm is switched off by default so single
+ * keystrokes go out immediately.
+ *
+ * @version $Id$
+ */
+public class NioSocket extends Plugin
+        implements BufferFilterPlugin, SocketListener {
+
+  private final static int debug = 0;
+
+  protected SocketChannel channel;
+
+  protected String relay = null;
+  protected int relayPort = 31415;
+
+  /** bytes requested from the channel per read */
+  protected int readSize = 16384;
+  /** socket receive buffer size, 0 keeps the system default */
+  protected int receiveBuffer = 0;
+  /** disable Nagle's algorithm */
+  protected boolean tcpNoDelay = true;
+
+  /** data read from the channel but not yet passed on, kept flipped */
+  private ByteBuffer inbuf;
+  /** staging buffer for outgoing data */
+  private ByteBuffer outbuf;
+
+  /**
+   * Create a new NIO socket plugin.
+   */
+  public NioSocket(final PluginBus bus, final String id) {
+    super(bus, id);
+
+    // register socket listener
+    bus.registerPluginListener(this);
+
+    bus.registerPluginListener(new ConfigurationListener() {
+      public void setConfiguration(PluginConfig config) {
+        if ((relay = config.getProperty("NioSocket", id, "relay"))
+                != null)
+          if (config.getProperty("NioSocket", id, "relayPort") != null)
+            try {
+              relayPort = Integer.parseInt(
+                      config.getProperty("NioSocket", id, "relayPort"));
+            } catch (NumberFormatException e) {
+              NioSocket.this.error("relayPort is not a number");
+            }
+        readSize = getSize(config, id, "readSize", readSize);
+        receiveBuffer = getSize(config, id, "receiveBuffer", receiveBuffer);
+        String tmp = config.getProperty("NioSocket", id, "tcpNoDelay");
+        if (tmp != null)
+          tcpNoDelay = Boolean.valueOf(tmp).booleanValue();
+      }
+    });
+  }
+
+  private int getSize(PluginConfig config, String id, String key, int def) {
+    String tmp = config.getProperty("NioSocket", id, key);
+    if (tmp == null) return def;
+    try {
+      int size = Integer.parseInt(tmp);
+      if (size >= 0) return size;
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    error(key + " is not a valid size: " + tmp);
+    return def;
+  }
+
+  private String error = null;
+
+  /**
+   * Connect to the host and port passed. If the multi relayd (mrelayd) is
+   * used to allow connections to any host and the NioSocket.relay property
+   * is configured this method will connect to the relay first, send
+   * off the string "relay host port\n" and then the real connection will
+   * be published to be online.
+   */
+  public void connect(String host, int port) throws IOException {
+    if (host == null) return;
+    if (debug > 0) error("connect(" + host + "," + port + ")");
+    try {
+      channel = SocketChannel.open();
+      channel.socket().setTcpNoDelay(tcpNoDelay);
+      // must be set before connecting to affect the TCP window
+      if (receiveBuffer > 0)
+        channel.socket().setReceiveBufferSize(receiveBuffer);
+      // check the relay settings, this is for the mrelayd only!
+      if (relay == null)
+        channel.connect(new InetSocketAddress(host, port));
+      else
+        channel.connect(new InetSocketAddress(relay, relayPort));
+      if (inbuf == null || inbuf.capacity() != readSize)
+        inbuf = ByteBuffer.allocateDirect(readSize > 0 ? readSize : 1);
+      inbuf.clear().flip();
+      // send the string to relay to the target host, port
+      if (relay != null)
+        write(("relay " + host + " " + port + "\n").getBytes());
+    } catch (Exception e) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ce) {
+          // ignore, we never got connected anyway
+        }
+        channel = null;
+      }
+      error = "Sorry, Could not connect to: "+host+" "+port + "\r\n" +
+              "Reason: " + e + "\r\n\r\n";
+      error("can't connect: " + e);
+    }
+    bus.broadcast(new OnlineStatus(true));
+  }
+
+  /** Disconnect the socket and close the connection. */
+  public void disconnect() throws IOException {
+    if (debug > 0) error("disconnect()");
+    bus.broadcast(new OnlineStatus(false));
+    if (channel != null) {
+      SocketChannel tmp = channel;
+      channel = null;
+      tmp.close();
+    }
+  }
+
+  public void setFilterSource(FilterPlugin plugin) {
+    // we do not have a source other than our socket
+  }
+
+  public FilterPlugin getFilterSource() {
+    return null;
+  }
+
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    // send error messages upward
+    if (error != null && error.length() > 0) {
+      int n = error.length() < len ? error.length() : len;
+      System.arraycopy(error.getBytes(), 0, b, off, n);
+      error = error.substring(n);
+      return n;
+    }
+
+    SocketChannel ch = channel;
+    if (ch == null) {
+      disconnect();
+      return -1;
+    }
+
+    // only go to the channel once everything buffered has been handed out
+    if (!inbuf.hasRemaining()) {
+      inbuf.clear();
+      int n;
+      try {
+        n = ch.read(inbuf);
+      } finally {
+        inbuf.flip();
+      }
+      if (n < 0) {
+        disconnect();
+        return -1;
+      }
+    }
+
+    int n = inbuf.remaining() < len ? inbuf.remaining() : len;
+    inbuf.get(b, off, n);
+    return n;
+  }
+
+  private BufferPool pool;
+
+  public void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Read from the channel straight into a buffer of the pool. Using a
+   * direct pool avoids the copy the channel makes for heap buffers.
+   */
+  public ByteBuffer readBuffer() throws IOException {
+    // send error messages upward
+    if (error != null && error.length() > 0) {
+      ByteBuffer b = pool.get();
+      byte[] msg = error.getBytes();
+      int n = msg.length < b.remaining() ? msg.length : b.remaining();
+      b.put(msg, 0, n);
+      error = error.substring(n);
+      b.flip();
+      return b;
+    }
+
+    SocketChannel ch = channel;
+    if (ch == null) {
+      disconnect();
+      return null;
+    }
+
+    ByteBuffer b = pool.get();
+    // data left over from read() goes first
+    if (inbuf.hasRemaining()) {
+      int limit = inbuf.limit();
+      if (inbuf.remaining() > b.remaining())
+        inbuf.limit(inbuf.position() + b.remaining());
+      b.put(inbuf);
+      inbuf.limit(limit);
+      b.flip();
+      return b;
+    }
+
+    int n;
+    try {
+      n = ch.read(b);
+    } catch (IOException e) {
+      pool.release(b);
+      throw e;
+    }
+    if (n < 0) {
+      pool.release(b);
+      disconnect();
+      return null;
+    }
+    b.flip();
+    return b;
+  }
+
+  public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  public synchronized void write(byte[] b, int off, int len)
+          throws IOException {
+    SocketChannel ch = channel;
+    if (ch == null) return;
+    try {
+      if (outbuf == null)
+        outbuf = ByteBuffer.allocateDirect(4096);
+      for (int end = off + len; off < end; ) {
+        int n = end - off;
+        if (n > outbuf.capacity()) n = outbuf.capacity();
+        outbuf.clear();
+        outbuf.put(b, off, n);
+        outbuf.flip();
+        while (outbuf.hasRemaining())
+          ch.write(outbuf);
+        off += n;
+      }
+    } catch (IOException e) {
+      disconnect();
+    }
+  }
+}
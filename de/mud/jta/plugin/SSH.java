@@ -201,9 +201,6 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
     return source;
   }
 
-  private byte buffer[];
-  private int pos;
-
   /**
    * Read data from the backend and decrypt it. This is a buffering read
    * as the encrypted information is usually smaller than its decrypted
@@ -214,6 +211,10 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
    * @return the amount of bytes actually read.
    */
   public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
     // we don't want to read from the pipeline without authorization
     while (!auth) try {
       Thread.sleep(1000);
@@ -222,40 +223,16 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
     }
 
     // Empty the buffer before we do anything else
-    if (buffer != null) {
-      int amount = ((buffer.length - pos) <= b.length) ?
-              buffer.length - pos : b.length;
-      System.arraycopy(buffer, pos, b, 0, amount);
-      if (pos + amount < buffer.length) {
-        pos += amount;
-      } else
-        buffer = null;
-      return amount;
-    }
+    if (handler.available() > 0)
+      return handler.read(b, off, len);
 
     // now that the buffer is empty let's read more data and decrypt it
-    int n = source.read(b);
+    int n = source.read(b, off, len);
     if (n > 0) {
-      byte[] tmp = new byte[n];
-      System.arraycopy(b, 0, tmp, 0, n);
-      pos = 0;
-      buffer = handler.handleSSH(tmp);
-
-      if (debug > 0 && buffer != null && buffer.length > 0)
-        System.err.println("ssh: " + buffer);
-
-      if (buffer != null && buffer.length > 0) {
-        if (debug > 0)
-          System.err.println("ssh: incoming=" + n + " now=" + buffer.length);
-        int amount = buffer.length <= b.length ? buffer.length : b.length;
-        System.arraycopy(buffer, 0, b, 0, amount);
-        pos = n = amount;
-        if (amount == buffer.length) {
-          buffer = null;
-          pos = 0;
-        }
-      } else
-        return 0;
+      int amount = handler.handleSSH(b, off, n);
+      if (debug > 0)
+        System.err.println("ssh: incoming=" + n + " now=" + amount);
+      return handler.read(b, off, len);
     }
     return n;
   }
@@ -268,16 +245,20 @@ public class SSH extends Plugin implements FilterPlugin, VisualPlugin {
    * @param b the unencrypted data to be encrypted and sent
    */
   public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
     // no write until authorization is done
     if (!auth) return;
-    for (int i = 0; i < b.length; i++) {
+    for (int i = off; i < off + len; i++) {
       switch (b[i]) {
         case 10: /* \n -> \r */
           b[i] = 13;
           break;
       }
     }
-    handler.sendData(new String(b));
+    handler.sendData(b, off, len);
   }
 
   public JComponent getPluginVisual() {
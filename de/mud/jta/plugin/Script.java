@@ -25,6 +25,8 @@
 
 package de.mud.jta.plugin;
 
+import de.mud.jta.BufferFilterPlugin;
+import de.mud.jta.BufferPool;
 import de.mud.jta.FilterPlugin;
 import de.mud.jta.Plugin;
 import de.mud.jta.PluginBus;
@@ -33,6 +35,7 @@ import de.mud.jta.event.ConfigurationListener;
 import de.mud.jta.event.OnlineStatusListener;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
 /**
@@ -53,7 +56,7 @@ import java.util.Vector;
  * @author Matthias L. Jugel, Marcus Mei�ner
  * @version $Id$
  */
-public class Script extends Plugin implements FilterPlugin {
+public class Script extends Plugin implements BufferFilterPlugin {
 
   /**
    * debugging level
@@ -149,15 +152,35 @@ public class Script extends Plugin implements FilterPlugin {
    * @return the amount of bytes actually read
    */
   public int read(byte[] b) throws IOException {
-    int n = source.read(b);
-    if (n > 0) match(b, n);
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = source.read(b, off, len);
+    if (n > 0) match(b, off, n);
     return n;
   }
 
+  private BufferPool pool;
+
+  public void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  public ByteBuffer readBuffer() throws IOException {
+    ByteBuffer b = pool.read(source);
+    if (b != null) match(b);
+    return b;
+  }
+
   public void write(byte[] b) throws IOException {
     source.write(b);
   }
 
+  public void write(byte[] b, int off, int len) throws IOException {
+    source.write(b, off, len);
+  }
+
   // =================================================================
   // the actual scripting code follows:
   // =================================================================
@@ -201,10 +224,11 @@ public class Script extends Plugin implements FilterPlugin {
    * will return instantly when all the script work is done.
    *
    * @param s      the array of bytes to match against
+   * @param off    where to start in the array
    * @param length the amount of bytes in the array
    */
-  private void match(byte[] s, int length) throws IOException {
-    for (int i = 0; !done && i < length; i++) {
+  private void match(byte[] s, int off, int length) throws IOException {
+    for (int i = off; !done && i < off + length; i++) {
       if (s[i] == match[matchPos]) {
         // the whole thing matched so, return the match answer 
         // and reset to use the next match
@@ -215,6 +239,22 @@ public class Script extends Plugin implements FilterPlugin {
     }
   }
 
+  /**
+   * Try to match the remaining bytes of a buffer without moving its
+   * position.
+   *
+   * @param b the buffer to match against
+   */
+  private void match(ByteBuffer b) throws IOException {
+    for (int i = b.position(); !done && i < b.limit(); i++) {
+      if (b.get(i) == match[matchPos]) {
+        if (++matchPos >= match.length)
+          write(found());
+      } else
+        reset();
+    }
+  }
+
   /**
    * This method is called when a script match was found and will
    * setup the next match to be used and return the answer for the
@@ -25,7 +25,7 @@
 
 package de.mud.jta.plugin;
 
-import de.mud.jta.Plugin;
+import de.mud.jta.FilterPluginAdapter;
 import de.mud.jta.FilterPlugin;
 import de.mud.jta.PluginBus;
 import de.mud.jta.PluginConfig;
@@ -47,7 +47,7 @@ import java.io.IOException;
  * @version $Id$
  * @author Matthias L. Jugel, Marcus Mei�ner, Pete Zaitcev
  */
-public class Shell extends Plugin implements FilterPlugin {
+public class Shell extends FilterPluginAdapter {
 
   protected String shellCommand;
 
@@ -25,7 +25,7 @@
 
 package de.mud.jta.plugin;
 
-import de.mud.jta.Plugin;
+import de.mud.jta.FilterPluginAdapter;
 import de.mud.jta.PluginConfig;
 import de.mud.jta.FilterPlugin;
 import de.mud.jta.VisualTransferPlugin;
@@ -84,21 +84,37 @@ import java.util.Enumeration;
  * @version $Id$
  * @author Matthias L. Jugel, Marcus Mei�ner
  */
-public class Sink extends Plugin 
-  implements FilterPlugin, Runnable {
+public class Sink extends FilterPluginAdapter
+  implements Runnable {
 
   private final static int debug = 0;
   
   private Thread reader = null;
+  /** the amount of bytes read through the filter chain at once */
+  protected int readBufferSize = 16384;
 
   public Sink(final PluginBus bus, final String id) {
     super(bus, id);
+
+    bus.registerPluginListener(new ConfigurationListener() {
+      public void setConfiguration(PluginConfig cfg) {
+        String tmp = cfg.getProperty("Sink", id, "readBufferSize");
+        if (tmp != null)
+          try {
+            int size = Integer.parseInt(tmp);
+            if (size > 0) readBufferSize = size;
+          } catch (NumberFormatException e) {
+            error("readBufferSize is not a number: " + tmp);
+          }
+      }
+    });
+
     // register an online status listener
     bus.registerPluginListener(new OnlineStatusListener() {
       public void online() {
         if(debug > 0) System.err.println("Terminal: online "+reader);
         if(reader == null) {
-          reader = new Thread();
+          reader = new Thread(Sink.this);
           reader.start();
         }
       }
@@ -115,7 +131,7 @@ public class Sink extends Plugin
    * Continuously read from our back end and drop the data.
    */
   public void run() {
-    byte[] t, b = new byte[256];
+    byte[] b = new byte[readBufferSize];
     int n = 0;
     while(n >= 0) try {
       n = read(b);
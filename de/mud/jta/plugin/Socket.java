@@ -132,10 +132,14 @@ public class Socket extends Plugin
   }
 
   public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
     // send error messages upward
     if (error != null && error.length() > 0) {
-      int n = error.length() < b.length ? error.length() : b.length;
-      System.arraycopy(error.getBytes(), 0, b, 0, n);
+      int n = error.length() < len ? error.length() : len;
+      System.arraycopy(error.getBytes(), 0, b, off, n);
       error = error.substring(n);
       return n;
     }
@@ -145,15 +149,19 @@ public class Socket extends Plugin
       return -1;
     }
 
-    int n = in.read(b);
+    int n = in.read(b, off, len);
     if (n < 0) disconnect();
     return n;
   }
 
   public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
     if (out == null) return;
     try {
-      out.write(b);
+      out.write(b, off, len);
     } catch (IOException e) {
       disconnect();
     }
@@ -25,6 +25,8 @@
 
 package de.mud.jta.plugin;
 
+import de.mud.jta.BufferFilterPlugin;
+import de.mud.jta.BufferPool;
 import de.mud.jta.Plugin;
 import de.mud.jta.PluginConfig;
 import de.mud.jta.FilterPlugin;
@@ -45,6 +47,7 @@ import de.mud.telnet.TelnetProtocolHandler;
 import java.awt.Dimension;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * The telnet plugin utilizes a telnet protocol handler to filter
@@ -55,7 +58,7 @@ import java.io.IOException;
  * @version $Id$
  * @author Matthias L. Jugel, Marcus Meissner
  */
-public class Telnet extends Plugin implements FilterPlugin {
+public class Telnet extends Plugin implements BufferFilterPlugin {
 
   protected FilterPlugin source;
   protected TelnetProtocolHandler handler;
@@ -90,6 +93,10 @@ public class Telnet extends Plugin implements FilterPlugin {
       public void write(byte[] b) throws IOException {
         source.write(b);
       }
+
+      public void write(byte[] b, int off, int len) throws IOException {
+        source.write(b, off, len);
+      }
     };
 
     // reset the telnet protocol handler just in case :-)
@@ -150,6 +157,10 @@ public class Telnet extends Plugin implements FilterPlugin {
   }
 
   public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
     /* We just don't pass read() down, since negotiate() might call other
      * functions and we need transaction points.
      */
@@ -161,7 +172,7 @@ public class Telnet extends Plugin implements FilterPlugin {
      * any data read.
      */
     do {
-      n = handler.negotiate(b);
+      n = handler.negotiate(b, off, len);
       if (n>0)
         return n;
     } while (n==0);
@@ -170,14 +181,14 @@ public class Telnet extends Plugin implements FilterPlugin {
      * at the end of the buffer.
      */
     while (true) {
-      n = source.read(b);
+      n = source.read(b, off, len);
       if (n <= 0 )
 	return n;
 
-      handler.inputfeed(b,n);
+      handler.inputfeed(b,off,n);
       n = 0;
       while (true) {
-	n = handler.negotiate(b);
+	n = handler.negotiate(b, off, len);
 	if (n>0)
 	  return n;
 	if (n==-1) // buffer empty.
@@ -187,7 +198,84 @@ public class Telnet extends Plugin implements FilterPlugin {
     }
   }
 
+  private BufferPool pool;
+  /** used to move data between the handler and direct buffers */
+  private byte[] scratch;
+
+  public void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+    scratch = null;
+  }
+
+  /**
+   * Read a buffer from the source and negotiate it in place, the same
+   * buffer is then handed up the chain. Direct buffers still go through
+   * an array, as the handler only works on arrays.
+   */
+  public ByteBuffer readBuffer() throws IOException {
+    ByteBuffer b = pool.get();
+    int n;
+
+    // same as read(): first the data left in the handler
+    do {
+      n = negotiate(b);
+      if (n > 0) {
+        b.flip();
+        return b;
+      }
+    } while (n == 0);
+    pool.release(b);
+
+    b = pool.read(source);
+    if (b == null)
+      return null;
+    byte[] buf;
+    int off, pos = b.position(), len = b.remaining();
+    if (b.hasArray()) {
+      buf = b.array();
+      off = b.arrayOffset() + b.position();
+    } else {
+      if (scratch == null || scratch.length < b.capacity())
+        scratch = new byte[b.capacity()];
+      buf = scratch;
+      off = 0;
+      b.get(buf, 0, len);
+    }
+    n = handler.negotiateInPlace(buf, off, len);
+    while (n == 0)
+      n = handler.negotiate(buf, off, len);
+    if (n < 0)
+      n = 0;
+    if (b.hasArray()) {
+      b.limit(pos + n);
+      b.position(pos);
+    } else {
+      b.clear();
+      b.put(buf, 0, n);
+      b.flip();
+    }
+    return b;
+  }
+
+  private int negotiate(ByteBuffer b) throws IOException {
+    if (b.hasArray()) {
+      int n = handler.negotiate(b.array(), b.arrayOffset() + b.position(),
+                                b.remaining());
+      if (n > 0) b.position(b.position() + n);
+      return n;
+    }
+    if (scratch == null) scratch = new byte[pool.getBufferSize()];
+    int n = handler.negotiate(scratch, 0,
+                              Math.min(scratch.length, b.remaining()));
+    if (n > 0) b.put(scratch, 0, n);
+    return n;
+  }
+
   public void write(byte[] b) throws IOException {
     handler.transpose(b); // transpose 0xff or \n and send data
   }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    handler.transpose(b, off, len);
+  }
 }
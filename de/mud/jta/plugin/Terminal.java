@@ -25,6 +25,8 @@
 
 package de.mud.jta.plugin;
 
+import de.mud.jta.BufferFilterPlugin;
+import de.mud.jta.BufferPool;
 import de.mud.jta.FilterPlugin;
 import de.mud.jta.Plugin;
 import de.mud.jta.PluginBus;
@@ -67,7 +69,9 @@ import java.awt.event.FocusListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
 import java.net.URL;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -84,7 +88,7 @@ import java.util.Properties;
  * @author Matthias L. Jugel, Marcus Mei�ner
  */
 public class Terminal extends Plugin
-        implements FilterPlugin, VisualTransferPlugin, ClipboardOwner, Runnable {
+        implements BufferFilterPlugin, VisualTransferPlugin, ClipboardOwner, Runnable {
 
   private final static boolean personalJava = false;
 
@@ -102,8 +106,12 @@ public class Terminal extends Plugin
    * most available browsers.
    */
   protected String encoding = "latin1"; // "ISO8859_1";
+  /** the amount of bytes read through the filter chain at once */
+  protected int readBufferSize = 16384;
   /** if we have a url to an audioclip use it as ping */
   protected SoundRequest audioBeep = null;
+  /** keystrokes and pasted text are sent from the queue's own thread */
+  protected WriteQueue writeQueue;
 
   /** the terminal panel that is displayed on-screen */
   protected JPanel tPanel;
@@ -147,6 +155,16 @@ public class Terminal extends Plugin
   public Terminal(final PluginBus bus, final String id) {
     super(bus, id);
 
+    writeQueue = new WriteQueue(65536) {
+      protected void send(byte[] b, int off, int len) throws IOException {
+        source.write(b, off, len);
+      }
+
+      protected void writeFailed(IOException e) {
+        reader = null;
+      }
+    };
+
     // create the terminal emulation
     emulation = new vt320() {
       public void write(byte[] b) {
@@ -365,6 +383,7 @@ public class Terminal extends Plugin
         if (debug > 0) System.err.println("Terminal: offline");
         if (reader != null)
           reader = null;
+        writeQueue.clear();
       }
     });
 
@@ -525,6 +544,34 @@ public class Terminal extends Plugin
         terminal.setResizeStrategy(SwingTerminal.RESIZE_NONE);
 
 
+    if ((tmp = cfg.getProperty("Terminal", id, "maxFps")) != null)
+      try {
+        terminal.setMaxFps(Integer.parseInt(tmp));
+      } catch (NumberFormatException e) {
+        error("maxFps is not a number: " + tmp);
+      }
+
+    if ((tmp = cfg.getProperty("Terminal", id, "readBufferSize")) != null)
+      try {
+        int size = Integer.parseInt(tmp);
+        if (size > 0)
+          readBufferSize = size;
+        else
+          error("readBufferSize must be positive: " + tmp);
+      } catch (NumberFormatException e) {
+        error("readBufferSize is not a number: " + tmp);
+      }
+
+    if ((tmp = cfg.getProperty("Terminal", id, "writeQueue")) != null)
+      try {
+        writeQueue.setCapacity(Integer.parseInt(tmp));
+      } catch (NumberFormatException e) {
+        error("writeQueue is not a number: " + tmp);
+      }
+
+    if ((tmp = cfg.getProperty("Terminal", id, "glyphAtlas")) != null)
+      terminal.setGlyphAtlas((Boolean.valueOf(tmp)).booleanValue());
+
     if ((tmp = cfg.getProperty("Terminal", id, "font")) != null) {
       String font = tmp;
       int style = Font.PLAIN, fsize = 12;
@@ -584,15 +631,32 @@ public class Terminal extends Plugin
    * Continuously read from our back end and display the data on screen.
    */
   public void run() {
-    byte[] b = new byte[256];
+    byte[] b = new byte[readBufferSize];
     int n = 0;
+    try {
+      emulation.setEncoding(encoding);
+    } catch (UnsupportedEncodingException e) {
+      error("unsupported encoding: " + encoding);
+      reader = null;
+      return;
+    }
     while (n >= 0)
       try {
+        BufferPool pool = this.pool;
+        if (pool != null) {
+          ByteBuffer buf = pool.read(source);
+          if (buf == null) {
+            n = -1;
+          } else {
+            if (buf.hasRemaining()) emulation.putBytes(buf);
+            pool.release(buf);
+          }
+          continue;
+        }
         n = read(b);
         if (debug > 1 && n > 0)
           System.err.println("Terminal: \"" + (new String(b, 0, n, encoding)) + "\"");
-        if (n > 0) emulation.putString(new String(b, 0, n, encoding));
-        tPanel.repaint();
+        if (n > 0) emulation.putBytes(b, 0, n);
       } catch (IOException e) {
         reader = null;
         break;
@@ -614,8 +678,26 @@ public class Terminal extends Plugin
     return source.read(b);
   }
 
+  public int read(byte[] b, int off, int len) throws IOException {
+    return source.read(b, off, len);
+  }
+
+  private BufferPool pool;
+
+  public void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  public ByteBuffer readBuffer() throws IOException {
+    return pool.read(source);
+  }
+
   public void write(byte[] b) throws IOException {
-    source.write(b);
+    writeQueue.write(b, 0, b.length);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    writeQueue.write(b, off, len);
   }
 
   public JComponent getPluginVisual() {
@@ -25,7 +25,9 @@
 
 package de.mud.jta.plugin;
 
-import de.mud.jta.Plugin;
+import de.mud.jta.FilterPluginAdapter;
+import de.mud.jta.BufferFilterPlugin;
+import de.mud.jta.BufferPool;
 import de.mud.jta.FilterPlugin;
 import de.mud.jta.PluginBus;
 import de.mud.jta.PluginConfig;
@@ -34,6 +36,7 @@ import de.mud.jta.event.SocketListener;
 import de.mud.jta.event.SocketRequest;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * The timeout plugin looks at the incoming and outgoing data stream and
@@ -45,8 +48,8 @@ import java.io.IOException;
  * @version $Id$
  * @author Matthias L. Jugel, Marcus Mei�ner
  */
-public class Timeout extends Plugin 
-  implements FilterPlugin, SocketListener, Runnable {
+public class Timeout extends FilterPluginAdapter
+  implements BufferFilterPlugin, SocketListener, Runnable {
 
   private final static int debug = 0;
 
@@ -166,6 +169,19 @@ public class Timeout extends Plugin
     return n;
   }
 
+  private BufferPool pool;
+
+  public void setBufferPool(BufferPool pool) {
+    this.pool = pool;
+  }
+
+  public ByteBuffer readBuffer() throws IOException {
+    ByteBuffer b = pool.read(source);
+    if(b != null && b.hasRemaining() && timeoutThread != null)
+      timeoutThread.interrupt();
+    return b;
+  }
+
   public void write(byte[] b) throws IOException {
       source.write(b);
       if(timeoutThread != null) timeoutThread.interrupt();
@@ -48,12 +48,7 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.StreamTokenizer;
 import java.net.URL;
 import java.util.Vector;
 
@@ -66,7 +61,7 @@ import java.util.Vector;
  * @author Matthias L. Jugel, Marcus Mei�ner
  */
 public class URLFilter extends Plugin
-        implements FilterPlugin, VisualPlugin, Runnable {
+        implements FilterPlugin, VisualPlugin {
 
   /** debugging level */
   private final static int debug = 0;
@@ -78,9 +73,6 @@ public class URLFilter extends Plugin
   protected JPanel urlPanel;
   protected JMenu urlMenu;
 
-  protected PipedInputStream pin;
-  protected PipedOutputStream pout;
-
   protected AppletContext context;
 
 
@@ -103,7 +95,7 @@ public class URLFilter extends Plugin
     JButton b = new JButton("Clear List");
     b.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent evt) {
-        urlCache.removeAllElements();
+        clearURLs();
         urlList.removeAll();
       }
     });
@@ -113,7 +105,7 @@ public class URLFilter extends Plugin
       public void actionPerformed(ActionEvent evt) {
         String item = (String) urlList.getSelectedValue();
         if (item != null) {
-          urlCache.removeElement(item);
+          removeURL(item);
           urlList.remove(urlList.getSelectedIndex());
         }
       }
@@ -158,75 +150,145 @@ public class URLFilter extends Plugin
         }
       }
     });
+  }
 
-    // create the recognizer pipe
-    pin = new PipedInputStream();
-    pout = new PipedOutputStream();
+  /** urls already found, to avoid duplicates in the list (hash table) */
+  private String[] urlCache = new String[64];
+  private int urlCount = 0;
 
-    try {
-      pout.connect(pin);
-    } catch (IOException e) {
-      System.err.println("URLFilter: error installing recognizer: " + e);
-    }
+  /**
+   * Remember a url.
+   * @return false if the url was already known
+   */
+  private synchronized boolean addURL(String u) {
+    int i = urlSlot(urlCache, u);
+    if (urlCache[i] != null) return false;
+    urlCache[i] = u;
+    // keep at least half of the table free so the probing stays short
+    if (++urlCount * 2 > urlCache.length) rehash(urlCache.length * 2);
+    return true;
+  }
 
-    // start the recognizer
-    Thread recognizer = new Thread(this);
-    recognizer.start();
+  private synchronized void removeURL(String u) {
+    int i = urlSlot(urlCache, u);
+    if (urlCache[i] == null) return;
+    urlCache[i] = null;
+    urlCount--;
+    // entries after the gap may not be found anymore otherwise
+    rehash(urlCache.length);
   }
 
-  private Vector urlCache = new Vector();
+  private synchronized void clearURLs() {
+    urlCache = new String[64];
+    urlCount = 0;
+  }
 
-  public void run() {
-    try {
-      StreamTokenizer st =
-              new StreamTokenizer(new BufferedReader(new InputStreamReader(pin)));
-      st.eolIsSignificant(true);
-      st.slashSlashComments(false);
-      st.slashStarComments(false);
-      st.whitespaceChars(0, 31);
-      st.ordinaryChar('"');
-      st.ordinaryChar('<');
-      st.ordinaryChar('>');
-      st.ordinaryChar('/');
-      st.ordinaryChar(':');
-
-      int token;
-      while ((token = st.nextToken()) != StreamTokenizer.TT_EOF) {
-        if (token == StreamTokenizer.TT_WORD) {
-          String word = st.sval.toLowerCase();
-
-          // see if we have found a protocol
-          if (protocols.contains(word)) {
-            // check that the next chars are ":/"
-            if (st.nextToken() == ':' && st.nextToken() == '/') {
-              String url = word + ":/";
-              // collect the test of the url
-              while ((token = st.nextToken()) == StreamTokenizer.TT_WORD ||
-                      token == '/')
-                if (token == StreamTokenizer.TT_WORD)
-                  url += st.sval;
-                else
-                  url += (char) token;
-
-              // urls that end with a dot are usually wrong, so cut it off
-              if (url.endsWith("."))
-                url = url.substring(0, url.length() - 1);
-
-              // check for duplicate urls by consulting the urlCache
-              if (!urlCache.contains(url)) {
-                urlCache.addElement(url);
-                urlList.add(url, new JLabel(url));
-                System.out.println("URLFilter: found \"" + url + "\"");
-              }
-            }
-          }
+  private void rehash(int size) {
+    String[] old = urlCache;
+    urlCache = new String[size];
+    for (int i = 0; i < old.length; i++)
+      if (old[i] != null) urlCache[urlSlot(urlCache, old[i])] = old[i];
+  }
+
+  /** find the slot of a url, or the free slot where it belongs */
+  private static int urlSlot(String[] table, String u) {
+    int i = (u.hashCode() & 0x7fffffff) % table.length;
+    while (table[i] != null && !table[i].equals(u))
+      i = (i + 1) % table.length;
+    return i;
+  }
+
+  // =================================================================
+  // the url scanner, it keeps its state between two reads
+  // =================================================================
+
+  private final static int SCAN_TEXT = 0;   // looking for a protocol name
+  private final static int SCAN_SLASH = 1;  // protocol and ':' seen
+  private final static int SCAN_URL = 2;    // collecting the url
+
+  /** urls longer than this are cut off */
+  private final static int MAX_URL = 2048;
+
+  private int state = SCAN_TEXT;
+  /** the letters seen last, -1 if there were too many for a protocol */
+  private char[] word = new char[16];
+  private int wordLength = 0;
+  /** the url collected so far and the length of its protocol part */
+  private StringBuffer url = new StringBuffer();
+  private int prefixLength;
+
+  /**
+   * Scan a chunk of data for urls. A url is recognized by one of the
+   * configured protocols followed by ":/" and ends at the first character
+   * that may not appear in a url.
+   * @param b the buffer containing the data
+   * @param off where the data starts
+   * @param len the amount of bytes
+   */
+  private void scan(byte[] b, int off, int len) {
+    for (int i = off; i < off + len; i++) {
+      char c = (char) (b[i] & 0xff);
+      if (state == SCAN_URL) {
+        if (isURLChar(c) && url.length() < MAX_URL) {
+          url.append(c);
+          continue;
+        }
+        found();
+        state = SCAN_TEXT;
+      } else if (state == SCAN_SLASH) {
+        state = SCAN_TEXT;
+        if (c == '/') {
+          url.append(c);
+          prefixLength = url.length();
+          state = SCAN_URL;
+          continue;
         }
       }
-    } catch (IOException e) {
-      System.err.println("URLFilter: recognition aborted: " + e);
+
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        if (wordLength >= 0 && wordLength < word.length)
+          word[wordLength++] = c;
+        else
+          wordLength = -1;
+        continue;
+      }
+      // only create a string if this might be a protocol
+      if (c == ':' && wordLength > 0) {
+        String name = new String(word, 0, wordLength).toLowerCase();
+        if (protocols.contains(name)) {
+          url.setLength(0);
+          url.append(name).append(':');
+          state = SCAN_SLASH;
+        }
+      }
+      wordLength = 0;
     }
   }
 
+  private static boolean isURLChar(char c) {
+    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+        (c >= '0' && c <= '9'))
+      return true;
+    return "-._~:/?#@!$&*+,;=%".indexOf(c) >= 0;
+  }
+
+  /**
+   * Add the url just scanned to the list unless it is already known.
+   */
+  private void found() {
+    // punctuation at the end usually belongs to the text, so cut it off
+    int end = url.length();
+    while (end > prefixLength && ".,;:!?".indexOf(url.charAt(end - 1)) >= 0)
+      end--;
+    if (end == prefixLength) return;
+    String tmp = url.substring(0, end);
+
+    // check for duplicate urls by consulting the urlCache
+    if (!addURL(tmp)) return;
+    urlList.add(tmp, new JLabel(tmp));
+    System.out.println("URLFilter: found \"" + tmp + "\"");
+  }
+
   /**
    * Show a URL if the applet context is available.
    * We may make it later able to run a web browser or use an HTML
@@ -268,8 +330,12 @@ public class URLFilter extends Plugin
    * @return the amount of bytes actually read
    */
   public int read(byte[] b) throws IOException {
-    int n = source.read(b);
-    if (n > 0) pout.write(b, 0, n);
+    return read(b, 0, b.length);
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = source.read(b, off, len);
+    if (n > 0) scan(b, off, n);
     return n;
   }
 
@@ -277,6 +343,10 @@ public class URLFilter extends Plugin
     source.write(b);
   }
 
+  public void write(byte[] b, int off, int len) throws IOException {
+    source.write(b, off, len);
+  }
+
   public JComponent getPluginVisual() {
     return urlPanel;
   }
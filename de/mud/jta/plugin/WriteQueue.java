@@ -0,0 +1,162 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.jta.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * The write queue takes outgoing data and sends it from its own thread,
+ * so the caller (usually the event dispatch thread) does not wait for the
+ * network. Everything that piles up while a write is in progress is sent
+ * in one piece with the next one. Once more than the capacity is waiting,
+ * callers block until the writer catches up. Subclasses implement send()
+ * to deliver the data.
+ *
+ * @version $Id$
+ */
+public abstract class WriteQueue implements Runnable {
+  /** how long an idle writer thread waits for new data before it ends */
+  private final static long IDLE = 5000;
+
+  private int capacity;
+
+  /** data waiting to be written */
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+  private Thread writer = null;
+
+  /**
+   * Create a new write queue.
+   * @param capacity the amount of bytes that may wait before write() blocks
+   * @see #setCapacity
+   */
+  public WriteQueue(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Set the amount of bytes that may wait to be sent. A capacity of 0 turns
+   * the queue off and write() calls send() directly.
+   * @param capacity the capacity in bytes
+   */
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = capacity;
+    notifyAll();
+  }
+
+  /**
+   * Deliver data. This is called from the writer thread, or directly
+   * from write() if the queue is turned off.
+   * @param b the buffer containing the data
+   * @param off the offset of the data in the buffer
+   * @param len the amount of bytes
+   */
+  protected abstract void send(byte[] b, int off, int len)
+          throws IOException;
+
+  /**
+   * Queue data to be written. This returns immediately unless the queue is
+   * full, in which case it waits until the writer has taken the data. A
+   * block larger than the capacity is accepted once the queue is empty.
+   * @param b the buffer containing the data, it is copied
+   * @param off the offset of the data in the buffer
+   * @param len the amount of bytes
+   */
+  public void write(byte[] b, int off, int len) throws IOException {
+    synchronized (this) {
+      // keep the order while the writer thread is still around
+      if (capacity > 0 || writer != null) {
+        queue(b, off, len);
+        return;
+      }
+    }
+    send(b, off, len);
+  }
+
+  private void queue(byte[] b, int off, int len) throws IOException {
+    while (pending.size() > 0 && pending.size() + len > capacity)
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("write queue interrupted");
+      }
+    pending.write(b, off, len);
+    if (writer == null) {
+      writer = new Thread(this, "WriteQueue");
+      writer.setDaemon(true);
+      writer.start();
+    }
+    notifyAll();
+  }
+
+  /** Drop all data that has not been taken by the writer yet. */
+  public synchronized void clear() {
+    pending.reset();
+    notifyAll();
+  }
+
+  /**
+   * Called from the writer thread if sending failed. The data of the
+   * failed write is lost.
+   * @param e the exception thrown by send()
+   */
+  protected void writeFailed(IOException e) {
+    System.err.println("WriteQueue: " + e);
+  }
+
+  /**
+   * Take all waiting data and write it at once, until there has been
+   * nothing to do for a while.
+   */
+  public void run() {
+    while (true) {
+      byte[] b;
+      synchronized (this) {
+        if (pending.size() == 0) {
+          try {
+            wait(IDLE);
+          } catch (InterruptedException e) {
+            // end the thread if there is nothing to do
+          }
+          if (pending.size() == 0) {
+            writer = null;
+            return;
+          }
+        }
+        b = pending.toByteArray();
+        pending.reset();
+        notifyAll();
+      }
+      try {
+        send(b, 0, b.length);
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+    }
+  }
+}
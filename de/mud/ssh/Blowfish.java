@@ -40,6 +40,8 @@ public final class Blowfish extends Cipher {
 
   private int IV0;
   private int IV1;
+  /** output of the block functions */
+  private final int[] out = new int[2];
 
   public Blowfish() {
   }
@@ -122,8 +124,7 @@ public final class Blowfish extends Cipher {
 
   }
 
-  public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-    int[] out = new int[2];
+  public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     int iv0 = IV0;
     int iv1 = IV1;
     int end = srcOff + len;
@@ -194,8 +195,7 @@ public final class Blowfish extends Cipher {
     out[1] = L;
   }
 
-  public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-    int[] out = new int[2];
+  public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     int iv0 = IV0;
     int iv1 = IV1;
     int d0;
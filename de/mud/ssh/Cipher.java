@@ -33,10 +33,17 @@ package de.mud.ssh;
 public abstract class Cipher {
 
   public static Cipher getInstance(String algorithm) {
+    // the ciphers of the platform are a lot faster than ours
+    try {
+      Cipher jce = JCECipher.getInstance(algorithm);
+      if (jce != null) return jce;
+    } catch (Throwable t) {
+      // no JCE available, e.g. an old browser VM
+    }
     Class c;
     try {
       c = Class.forName("de.mud.ssh." + algorithm);
-      return (Cipher) c.newInstance();
+      return (Cipher) c.getDeclaredConstructor().newInstance();
     } catch (Throwable t) {
       System.err.println("Cipher: unable to load instance of '" + algorithm + "'");
       return null;
@@ -53,7 +60,9 @@ public abstract class Cipher {
   }
 
   /**
-   * The actual encryption takes place here.
+   * The actual encryption takes place here. Source and destination may be
+   * the same array to encrypt in place. Ciphers keep the state of their
+   * stream, so one instance must not be used by several threads at once.
    */
   public abstract void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len);
 
@@ -67,12 +76,20 @@ public abstract class Cipher {
   }
 
   /**
-   * The actual decryption takes place here.
+   * The actual decryption takes place here. Source and destination may be
+   * the same array to decrypt in place.
    */
   public abstract void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len);
 
   public abstract void setKey(byte[] key);
 
+  /**
+   * Set the initialization vector. The ciphers of this package always
+   * start with a vector of zeros, as SSH1 wants it, and ignore this.
+   */
+  public void setIV(byte[] iv) {
+  }
+
   public void setKey(String key) {
     setKey(key.getBytes());
   }
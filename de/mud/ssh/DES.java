@@ -80,9 +80,10 @@ public final class DES extends Cipher {
   protected int[] key_schedule = new int[32];
   protected int IV0 = 0;
   protected int IV1 = 0;
+  /** output of the block functions */
+  private final int[] out = new int[2];
 
-  public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-    int[] out = new int[2];
+  public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     int iv0 = IV0;
     int iv1 = IV1;
     int end = srcOff + len;
@@ -108,8 +109,7 @@ public final class DES extends Cipher {
     IV1 = iv1;
   }
 
-  public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-    int[] out = new int[2];
+  public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     int iv0 = IV0;
     int iv1 = IV1;
     int d0;
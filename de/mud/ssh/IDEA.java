@@ -45,12 +45,14 @@ public final class IDEA extends Cipher {
   protected int[] key_schedule = new int[52];
   protected int IV0 = 0;
   protected int IV1 = 0;
+  /** output of the block functions */
+  private final int[] out = new int[2];
 
-  public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-    int[] out = new int[2];
+  public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     int iv0 = IV0;
     int iv1 = IV1;
     int end = srcOff + len;
+    int destEnd = destOff + len;
 
     for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
       encrypt(iv0, iv1, out);
@@ -61,7 +63,7 @@ public final class IDEA extends Cipher {
       iv1 ^= ((src[si + 7] & 0xff) | ((src[si + 6] & 0xff) << 8) |
         ((src[si + 5] & 0xff) << 16) | ((src[si + 4] & 0xff) << 24));
 
-      if (di + 8 <= end) {
+      if (di + 8 <= destEnd) {
         dest[di + 3] = (byte) (iv0 & 0xff);
         dest[di + 2] = (byte) ((iv0 >>> 8) & 0xff);
         dest[di + 1] = (byte) ((iv0 >>> 16) & 0xff);
@@ -71,7 +73,7 @@ public final class IDEA extends Cipher {
         dest[di + 5] = (byte) ((iv1 >>> 16) & 0xff);
         dest[di + 4] = (byte) ((iv1 >>> 24) & 0xff);
       } else {
-        switch (end - di) {
+        switch (destEnd - di) {
           case 7:
             dest[di + 6] = (byte) ((iv1 >>> 8) & 0xff);
           case 6:
@@ -93,12 +95,12 @@ public final class IDEA extends Cipher {
     IV1 = iv1;
   }
 
-  public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
-    int[] out = new int[2];
+  public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     int iv0 = IV0;
     int iv1 = IV1;
     int plain0, plain1;
     int end = srcOff + len;
+    int destEnd = destOff + len;
 
     for (int si = srcOff, di = destOff; si < end; si += 8, di += 8) {
       decrypt(iv0, iv1, out);
@@ -109,7 +111,7 @@ public final class IDEA extends Cipher {
       plain0 = out[0] ^ iv0;
       plain1 = out[1] ^ iv1;
 
-      if (di + 8 <= end) {
+      if (di + 8 <= destEnd) {
         dest[di + 3] = (byte) (plain0 & 0xff);
         dest[di + 2] = (byte) ((plain0 >>> 8) & 0xff);
         dest[di + 1] = (byte) ((plain0 >>> 16) & 0xff);
@@ -119,7 +121,7 @@ public final class IDEA extends Cipher {
         dest[di + 5] = (byte) ((plain1 >>> 16) & 0xff);
         dest[di + 4] = (byte) ((plain1 >>> 24) & 0xff);
       } else {
-        switch (end - di) {
+        switch (destEnd - di) {
           case 7:
             dest[di + 6] = (byte) ((plain1 >>> 8) & 0xff);
           case 6:
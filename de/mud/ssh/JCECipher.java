@@ -0,0 +1,235 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A cipher that uses the Java Cryptography Extension of the platform.
+ * The providers of the JRE are usually much faster than our own ciphers
+ * and may use special instructions of the processor. The SSH1 variants
+ * of DES, 3DES and Blowfish are built so that they produce exactly the
+ * same data as the classes in this package, IDEA is not available from
+ * the standard providers.
+ * <P>
+ * Unlike the other ciphers the encryption and decryption direction each
+ * keep their own chaining state.
+ *
+ * @version $Id$
+ */
+public final class JCECipher extends Cipher {
+
+  /** An algorithm we know and how to set it up with the JCE. */
+  private final static class Algorithm {
+    /** the name used with Cipher.getInstance() */
+    final String name;
+    final String transformation;
+    final String keyAlgorithm;
+    /** the key length in bytes */
+    final int keyLength;
+    final int variant;
+
+    Algorithm(String name, String transformation, String keyAlgorithm,
+              int keyLength, int variant) {
+      this.name = name;
+      this.transformation = transformation;
+      this.keyAlgorithm = keyAlgorithm;
+      this.keyLength = keyLength;
+      this.variant = variant;
+    }
+  }
+
+  private final static Algorithm[] algorithms = {
+    new Algorithm("DES", "DES/CBC/NoPadding", "DES", 8, 0),
+    new Algorithm("DES3", "DES/CBC/NoPadding", "DES", 8, 1),
+    new Algorithm("Blowfish", "Blowfish/CBC/NoPadding", "Blowfish", 32, 2),
+    new Algorithm("AES128CTR", "AES/CTR/NoPadding", "AES", 16, 0),
+    new Algorithm("AES192CTR", "AES/CTR/NoPadding", "AES", 24, 0),
+    new Algorithm("AES256CTR", "AES/CTR/NoPadding", "AES", 32, 0),
+  };
+
+  /** three DES in SSH1 style, each with its own CBC chain */
+  private final static int TRIPLE = 1;
+  /** SSH1 Blowfish, which works on little endian words */
+  private final static int SWAPPED = 2;
+
+  private String name;
+  private String transformation;
+  private String keyAlgorithm;
+  private int keyLength;
+  private int variant;
+
+  private byte[] key;
+  private byte[] iv;
+
+  /** the stages of each direction, more than one for 3DES only */
+  private javax.crypto.Cipher[] enc, dec;
+
+  /** our own implementation, used if the provider refuses the key */
+  private Cipher fallback;
+
+  private JCECipher(Algorithm algorithm) {
+    name = algorithm.name;
+    transformation = algorithm.transformation;
+    keyAlgorithm = algorithm.keyAlgorithm;
+    keyLength = algorithm.keyLength;
+    variant = algorithm.variant;
+  }
+
+  /**
+   * Create a cipher backed by the JCE.
+   * @param algorithm the name of the cipher, as for Cipher.getInstance()
+   * @return the cipher or null if it is not known or not available
+   */
+  public static Cipher getInstance(String algorithm) {
+    for (int i = 0; i < algorithms.length; i++)
+      if (algorithms[i].name.equals(algorithm)) {
+        JCECipher c = new JCECipher(algorithms[i]);
+        try {
+          c.enc = c.create();
+          c.dec = c.create();
+        } catch (GeneralSecurityException e) {
+          return null;
+        }
+        return c;
+      }
+    return null;
+  }
+
+  private javax.crypto.Cipher[] create() throws GeneralSecurityException {
+    javax.crypto.Cipher[] stages =
+      new javax.crypto.Cipher[variant == TRIPLE ? 3 : 1];
+    for (int i = 0; i < stages.length; i++)
+      stages[i] = javax.crypto.Cipher.getInstance(transformation);
+    return stages;
+  }
+
+  public void setKey(byte[] key) {
+    this.key = key;
+    init();
+  }
+
+  /**
+   * Set the initialization vector. Ciphers start with a vector of zeros
+   * unless told otherwise.
+   */
+  public void setIV(byte[] iv) {
+    this.iv = iv;
+    if (key != null) init();
+  }
+
+  private void init() {
+    byte[] iv = new byte[enc[0].getBlockSize()];
+    if (this.iv != null)
+      System.arraycopy(this.iv, 0, iv, 0, Math.min(iv.length, this.iv.length));
+    try {
+      if (variant == TRIPLE) {
+        // encrypt, decrypt, encrypt and the other way around
+        init(enc[0], javax.crypto.Cipher.ENCRYPT_MODE, 0, iv);
+        init(enc[1], javax.crypto.Cipher.DECRYPT_MODE, 8, iv);
+        init(enc[2], javax.crypto.Cipher.ENCRYPT_MODE, 16, iv);
+        init(dec[0], javax.crypto.Cipher.DECRYPT_MODE, 16, iv);
+        init(dec[1], javax.crypto.Cipher.ENCRYPT_MODE, 8, iv);
+        init(dec[2], javax.crypto.Cipher.DECRYPT_MODE, 0, iv);
+      } else {
+        init(enc[0], javax.crypto.Cipher.ENCRYPT_MODE, 0, iv);
+        init(dec[0], javax.crypto.Cipher.DECRYPT_MODE, 0, iv);
+      }
+      fallback = null;
+    } catch (GeneralSecurityException e) {
+      // e.g. a provider that rejects weak DES keys
+      fallback = getFallback();
+      if (fallback == null)
+        throw new IllegalArgumentException("JCECipher: " + e);
+      fallback.setKey(key);
+      fallback.setIV(this.iv);
+    }
+  }
+
+  private void init(javax.crypto.Cipher c, int mode, int off, byte[] iv)
+    throws GeneralSecurityException {
+    if (key.length < off + keyLength)
+      throw new GeneralSecurityException("key too short");
+    c.init(mode, new SecretKeySpec(key, off, keyLength, keyAlgorithm),
+           new IvParameterSpec(iv));
+  }
+
+  private Cipher getFallback() {
+    try {
+      return (Cipher) Class.forName("de.mud.ssh." + name)
+        .getDeclaredConstructor().newInstance();
+    } catch (Throwable t) {
+      return null;
+    }
+  }
+
+  public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+    if (fallback != null)
+      fallback.encrypt(src, srcOff, dest, destOff, len);
+    else
+      run(enc, src, srcOff, dest, destOff, len);
+  }
+
+  public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+    if (fallback != null)
+      fallback.decrypt(src, srcOff, dest, destOff, len);
+    else
+      run(dec, src, srcOff, dest, destOff, len);
+  }
+
+  private void run(javax.crypto.Cipher[] stages, byte[] src, int srcOff,
+                   byte[] dest, int destOff, int len) {
+    if (variant == SWAPPED) {
+      swap(src, srcOff, dest, destOff, len);
+      src = dest;
+      srcOff = destOff;
+    }
+    try {
+      for (int i = 0; i < stages.length; i++) {
+        stages[i].update(src, srcOff, len, dest, destOff);
+        src = dest;
+        srcOff = destOff;
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("JCECipher: " + e);
+    }
+    if (variant == SWAPPED)
+      swap(dest, destOff, dest, destOff, len);
+  }
+
+  /** Reverse the byte order of each 32 bit word. */
+  private static void swap(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+    for (int i = 0; i + 3 < len; i += 4) {
+      byte b0 = src[srcOff + i], b1 = src[srcOff + i + 1];
+      dest[destOff + i] = src[srcOff + i + 3];
+      dest[destOff + i + 1] = src[srcOff + i + 2];
+      dest[destOff + i + 2] = b1;
+      dest[destOff + i + 3] = b0;
+    }
+  }
+}
@@ -36,11 +36,11 @@ public final class NONE extends Cipher {
   public void setKey(byte[] key) {
   }
 
-  public synchronized void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+  public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     System.arraycopy(src,srcOff,dest,destOff,len);
   }
 
-  public synchronized void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+  public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
     System.arraycopy(src,srcOff,dest,destOff,len);
   }
 }
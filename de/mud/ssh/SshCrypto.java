@@ -33,6 +33,29 @@ import java.math.BigInteger;
 public class SshCrypto {
   private Cipher sndCipher,rcvCipher;
 
+  /** SSH2 only: cipher block size and message authentication */
+  private int blockSize = 8;
+  private SshMac sndMac, rcvMac;
+
+  /**
+   * Create the crypto for SSH2, which uses different keys, initialization
+   * vectors and MACs for each direction.
+   * @param blockSize the block size of the ciphers
+   */
+  public SshCrypto(String type, int blockSize,
+                   byte[] sndKey, byte[] sndIV, SshMac sndMac,
+                   byte[] rcvKey, byte[] rcvIV, SshMac rcvMac) {
+    sndCipher = Cipher.getInstance(type);
+    rcvCipher = Cipher.getInstance(type);
+    sndCipher.setKey(sndKey);
+    sndCipher.setIV(sndIV);
+    rcvCipher.setKey(rcvKey);
+    rcvCipher.setIV(rcvIV);
+    this.blockSize = blockSize;
+    this.sndMac = sndMac;
+    this.rcvMac = rcvMac;
+  }
+
   public SshCrypto(String type, final byte[] key) {
     sndCipher = Cipher.getInstance(type);
     rcvCipher = Cipher.getInstance(type);
@@ -47,10 +70,32 @@ public class SshCrypto {
     return sndCipher.encrypt(block);
   }
 
+  public void encrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+    sndCipher.encrypt(src, srcOff, dest, destOff, len);
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /** @return the MAC used for sending, or null */
+  public SshMac getSendMac() {
+    return sndMac;
+  }
+
+  /** @return the MAC used for receiving, or null */
+  public SshMac getReceiveMac() {
+    return rcvMac;
+  }
+
   public byte[] decrypt(byte[] block) {
     return rcvCipher.decrypt(block);
   };
 
+  public void decrypt(byte[] src, int srcOff, byte[] dest, int destOff, int len) {
+    rcvCipher.decrypt(src, srcOff, dest, destOff, len);
+  }
+
   //-------------------------------------------------------------------------
 
   static public byte[] encrypteRSAPkcs1Twice(byte[] clearData,
@@ -26,7 +26,6 @@
 package de.mud.ssh;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -53,7 +52,8 @@ public abstract class SshIO {
    * variables for the connection
    */
   private String idstr = ""; //("SSH-<protocolmajor>.<protocolminor>-<version>\n")
-  private String idstr_sent = "SSH/JTA (c) Marcus Meissner, Matthias L. Jugel\n";
+  private final static String IDENT = "SSH/JTA (c) Marcus Meissner, Matthias L. Jugel";
+  private String idstr_sent = "";
 
   /**
    * Debug level. This results in additional diagnostic messages on the
@@ -88,9 +88,6 @@ public abstract class SshIO {
   private final int PHASE_SSH_RECEIVE_PACKET = 1;
 
 
-  // SSH v2 RSA
-  BigInteger rsa_e, rsa_n;
-
   //handlePacket
   //messages
   //  The supported packet types and the corresponding message numbers are
@@ -121,18 +118,82 @@ public abstract class SshIO {
 
   private final byte SSH2_MSG_DISCONNECT = 1;
   private final byte SSH2_MSG_IGNORE = 2;
+  private final byte SSH2_MSG_UNIMPLEMENTED = 3;
+  private final byte SSH2_MSG_DEBUG = 4;
   private final byte SSH2_MSG_SERVICE_REQUEST = 5;
   private final byte SSH2_MSG_SERVICE_ACCEPT = 6;
+  private final byte SSH2_MSG_EXT_INFO = 7;
 
   private final byte SSH2_MSG_KEXINIT = 20;
   private final byte SSH2_MSG_NEWKEYS = 21;
 
+  // also SSH2_MSG_KEX_ECDH_INIT and _REPLY for curve25519
   private final byte SSH2_MSG_KEXDH_INIT = 30;
   private final byte SSH2_MSG_KEXDH_REPLY = 31;
 
-  private String kexalgs, hostkeyalgs, encalgs2c, encalgc2s, macalgs2c, macalgc2s, compalgc2s, compalgs2c, langc2s, langs2;
+  private final byte SSH2_MSG_USERAUTH_REQUEST = 50;
+  private final byte SSH2_MSG_USERAUTH_FAILURE = 51;
+  private final byte SSH2_MSG_USERAUTH_SUCCESS = 52;
+  private final byte SSH2_MSG_USERAUTH_BANNER = 53;
+  private final byte SSH2_MSG_USERAUTH_INFO_REQUEST = 60;
+  private final byte SSH2_MSG_USERAUTH_INFO_RESPONSE = 61;
+
+  private final byte SSH2_MSG_GLOBAL_REQUEST = 80;
+  private final byte SSH2_MSG_REQUEST_FAILURE = 82;
+  private final byte SSH2_MSG_CHANNEL_OPEN = 90;
+  private final byte SSH2_MSG_CHANNEL_OPEN_CONFIRMATION = 91;
+  private final byte SSH2_MSG_CHANNEL_OPEN_FAILURE = 92;
+  private final byte SSH2_MSG_CHANNEL_WINDOW_ADJUST = 93;
+  private final byte SSH2_MSG_CHANNEL_DATA = 94;
+  private final byte SSH2_MSG_CHANNEL_EXTENDED_DATA = 95;
+  private final byte SSH2_MSG_CHANNEL_EOF = 96;
+  private final byte SSH2_MSG_CHANNEL_CLOSE = 97;
+  private final byte SSH2_MSG_CHANNEL_REQUEST = 98;
+  private final byte SSH2_MSG_CHANNEL_SUCCESS = 99;
+  private final byte SSH2_MSG_CHANNEL_FAILURE = 100;
+
+  /** SSH2 ciphers we know: name, name of our Cipher, key length */
+  private final static String[][] ciphers2 = {
+    {"aes128-ctr", "AES128CTR", "16"},
+    {"aes192-ctr", "AES192CTR", "24"},
+    {"aes256-ctr", "AES256CTR", "32"},
+  };
 
-  private int outgoingseq = 0, incomingseq = 0;
+  /**
+   * Our channel window. It is large and refilled early so bulk output is
+   * not held up waiting for window adjustments.
+   */
+  private final static int WINDOW = 2 * 1024 * 1024;
+  private final static int MAX_PACKET = 32768;
+
+  private int outgoingseq = 0;
+
+  // SSH2 key exchange
+  private String V_C, V_S;
+  /** the payloads of the KEXINIT packets, for the exchange hash */
+  private byte[] I_C, I_S;
+  private SshKex kex;
+  private String kexalg, hostkeyalg, cipher2, mac_c2s, mac_s2c;
+  private byte[] session_id;
+  /** the crypto of the key exchange in progress and that for receiving */
+  private SshCrypto newcrypto, rcvcrypto;
+  /** no channel data may be sent while this is set */
+  private boolean kexinit_sent = false;
+
+  // SSH2 authentication and channel
+  private String authmethod;
+  private boolean channelOpen = false;
+  private int remoteChannel, remoteMaxPacket, localWindow;
+  /** the window of the server, an unsigned 32 bit value */
+  private long remoteWindow;
+  /**
+   * channel data waiting for the shell, the key exchange or window space,
+   * from pendStart to pendEnd
+   */
+  private byte[] pending = new byte[1024];
+  private int pendStart = 0, pendEnd = 0;
+  /** the packet channel data is sent with, filled again for each one */
+  private SshPacket2 dataPacket = new SshPacket2(SSH2_MSG_CHANNEL_DATA);
 
   //
   // encryption types
@@ -178,6 +239,10 @@ public abstract class SshIO {
 
   SshPacket currentpacket;
 
+  /** decrypted data waiting to be read, from outStart to outEnd */
+  private byte[] outbuf = new byte[4096];
+  private int outStart = 0, outEnd = 0;
+
   protected abstract void write(byte[] buf) throws IOException;
 
   public abstract String getTerminalType();
@@ -196,6 +261,15 @@ public abstract class SshIO {
     password = "";
     phase = 0;
     crypto = null;
+    cansenddata = false;
+    outgoingseq = 0;
+    kex = null;
+    session_id = null;
+    newcrypto = rcvcrypto = null;
+    kexinit_sent = false;
+    authmethod = null;
+    channelOpen = false;
+    pendStart = pendEnd = 0;
   }
 
   public void setWindowSize(int columns,int rows)
@@ -205,11 +279,19 @@ public abstract class SshIO {
       return;
     }
     if (debug>1) System.err.println("SSHIO:setWindowSize("+columns+","+rows+")");
-    Send_SSH_CMSG_WINDOW_SIZE(columns,rows);
+    if (useprotocol == 2)
+      Send_SSH2_window_change(columns, rows);
+    else
+      Send_SSH_CMSG_WINDOW_SIZE(columns,rows);
   }
 
   synchronized public void sendData(String str) throws IOException {
     if (debug > 1) System.out.println("SshIO.send(" + str + ")");
+    if (useprotocol == 2) {
+      byte[] b = str.getBytes();
+      Send_SSH2_CHANNEL_DATA(b, 0, b.length);
+      return;
+    }
     if (dataToSend == null)
       dataToSend = str;
     else
@@ -220,6 +302,22 @@ public abstract class SshIO {
     }
   }
 
+  /**
+   * Send data to the remote host. With SSH2 the bytes are queued for the
+   * session channel as they are, without a detour through a String.
+   * @param b the array holding the data
+   * @param off where the data starts in the array
+   * @param len number of bytes
+   */
+  synchronized public void sendData(byte[] b, int off, int len)
+    throws IOException {
+    if (useprotocol == 2) {
+      if (debug > 1) System.out.println("SshIO.send(" + len + " bytes)");
+      Send_SSH2_CHANNEL_DATA(b, off, len);
+    } else
+      sendData(new String(b, off, len));
+  }
+
   /**
    * Read data from the remote host. Blocks until data is available.
    *
@@ -228,18 +326,31 @@ public abstract class SshIO {
    */
   public byte[] handleSSH(byte buff[])
     throws IOException {
-    byte[] rest;
-    String result;
+    handleSSH(buff, 0, buff.length);
+    byte[] result = new byte[available()];
+    read(result, 0, result.length);
+    return result;
+  }
 
+  /**
+   * Handle data received from the remote host. The data that is to be
+   * displayed is collected in a buffer that can be emptied using read().
+   * @param buff the buffer with the data received
+   * @param off the offset of the data in the buffer
+   * @param len the amount of bytes received
+   * @return the amount of bytes available for reading
+   */
+  public int handleSSH(byte buff[], int off, int len)
+    throws IOException {
     if (debug > 1)
-      System.out.println("SshIO.getPacket(" + buff + "," + buff.length + ")");
+      System.out.println("SshIO.getPacket(" + buff + "," + len + ")");
 
 
     if (phase == PHASE_INIT) {
       byte b;  		// of course, byte is a signed entity (-128 -> 127)
-      int boffset = 0;	// offset into the buffer received
+      int boffset = off;	// offset into the buffer received
 
-      while (boffset < buff.length) {
+      while (phase == PHASE_INIT && boffset < off + len) {
         b = buff[boffset++];
         // both sides MUST send an identification string of the form
         // "SSH-protoversion-softwareversion comments",
@@ -263,210 +374,461 @@ public abstract class SshIO {
           System.out.println("remotemajor " + remotemajor);
           System.out.println("remoteminor " + remoteminor);
 
-          if (remotemajor == 2) {
+          // SSH2 needs ciphers from the Java Cryptography Extension
+          boolean ssh2 = getCiphers2().length() > 0;
+          if ((remotemajor == 2 || remoteminor == 99) && ssh2) {
             mymajor = 2;
             myminor = 0;
             useprotocol = 2;
+          } else if (remotemajor == 2) {
 	    System.err.println("SSH protocol version 2 is not supported, but your remote server only speaks v2!");
-	    return "SSH protocol version 2 is not implemented.\n\rYou have two choices:\n\r- Change the server to support SSH Protocol 1 too.\n\r- Get another applet, check http://www.jcraft.com/jsch/\n\r".getBytes();
+	    output("SSH protocol version 2 needs a Java runtime with the Java Cryptography Extension.\n\r");
+	    return available();
           } else {
-            if (false && (remoteminor == 99)) {
-              mymajor = 2;
-              myminor = 0;
-              useprotocol = 2;
-            } else {
-              mymajor = 1;
-              myminor = 5;
-              useprotocol = 1;
-            }
+            mymajor = 1;
+            myminor = 5;
+            useprotocol = 1;
           }
           // this is how we tell the remote server what protocol we use.
-          idstr_sent = "SSH-" + mymajor + "." + myminor + "-" + idstr_sent;
-          write(idstr_sent.getBytes());
-
-          if (useprotocol == 2)
+          idstr_sent = "SSH-" + mymajor + "." + myminor + "-" + IDENT;
+
+          if (useprotocol == 2) {
+            write((idstr_sent + "\r\n").getBytes());
+            // the version strings go into the exchange hash without CR LF
+            V_C = idstr_sent;
+            V_S = idstr;
+            while (V_S.endsWith("\n") || V_S.endsWith("\r"))
+              V_S = V_S.substring(0, V_S.length() - 1);
             currentpacket = new SshPacket2(null);
-          else
+            Send_SSH2_MSG_KEXINIT();
+          } else {
+            write((idstr_sent + "\n").getBytes());
             currentpacket = new SshPacket1(null);
+          }
         }
       }
-      if (boffset == buff.length)
-        return "".getBytes();
-      return "Must not have left over data after PHASE_INIT!\n".getBytes();
+      if (phase == PHASE_INIT)
+        return available();
+      // whatever follows the version string is the first packet
+      len -= boffset - off;
+      off = boffset;
     }
 
-    result = "";
-    rest = currentpacket.addPayload(buff);
-    if (currentpacket.isFinished()) {
-      if (useprotocol == 1) {
-        result = result + handlePacket1((SshPacket1) currentpacket);
-        currentpacket = new SshPacket1(crypto);
-      } else {
-        result = result + handlePacket2((SshPacket2) currentpacket);
-        currentpacket = new SshPacket2(crypto);
-      }
-    }
-    while (rest != null) {
-      rest = currentpacket.addPayload(rest);
+    // the same packet is used for all data of the connection
+    int end = off + len;
+    while (off < end) {
+      off += currentpacket.addPayload(buff, off, end - off);
       if (currentpacket.isFinished()) {
-        // the packet is finished, otherwise we would not have got a rest
-        if (useprotocol == 1) {
-          result = result + handlePacket1((SshPacket1) currentpacket);
-          currentpacket = new SshPacket1(crypto);
-        } else {
-          result = result + handlePacket2((SshPacket2) currentpacket);
-          currentpacket = new SshPacket2(crypto);
-        }
+        if (useprotocol == 1)
+          output(handlePacket1((SshPacket1) currentpacket));
+        else
+          output(handlePacket2((SshPacket2) currentpacket));
+        // the crypto may have been switched on by the packet just handled
+        currentpacket.reset(useprotocol == 2 ? rcvcrypto : crypto);
       }
     }
-    return result.getBytes();
+    return available();
+  }
+
+  /** @return the amount of bytes waiting to be read */
+  public int available() {
+    return outEnd - outStart;
+  }
+
+  /**
+   * Read data collected by handleSSH().
+   * @param b the buffer to read into
+   * @param off the offset in the buffer
+   * @param len the maximum amount of bytes to read
+   * @return the amount of bytes actually read, 0 if none are available
+   */
+  public int read(byte[] b, int off, int len) {
+    int n = outEnd - outStart < len ? outEnd - outStart : len;
+    System.arraycopy(outbuf, outStart, b, off, n);
+    outStart += n;
+    if (outStart == outEnd)
+      outStart = outEnd = 0;
+    return n;
+  }
+
+  /** Make room for len more bytes at the end of the output buffer. */
+  private void reserve(int len) {
+    if (outbuf.length - outEnd < len) {
+      int size = outEnd - outStart;
+      byte[] tmp = outbuf;
+      // grow only if moving the waiting data to the front is not enough
+      if (tmp.length - size < len)
+        tmp = new byte[Math.max(2 * tmp.length, size + len)];
+      System.arraycopy(outbuf, outStart, tmp, 0, size);
+      outbuf = tmp;
+      outStart = 0;
+      outEnd = size;
+    }
+  }
+
+  /** Append data to the output buffer. */
+  private void output(byte[] b, int off, int len) {
+    reserve(len);
+    System.arraycopy(b, off, outbuf, outEnd, len);
+    outEnd += len;
+  }
+
+  /** Append a message to the output buffer, one byte per character. */
+  private void output(String str) {
+    int len = str.length();
+    reserve(len);
+    for (int i = 0; i < len; i++)
+      outbuf[outEnd++] = (byte) str.charAt(i);
   }
 
   /**
    * Handle SSH protocol Version 2
    *
    * @param p the packet we will process here.
-   * @return a array of bytes
+   * @return a message to display
    */
   private String handlePacket2(SshPacket2 p)
     throws IOException {
+    if (debug > 0)
+      System.err.println("SSH2: handlePacket2 type " + p.getType());
     switch (p.getType()) {
       case SSH2_MSG_IGNORE:
-        System.out.println("SSH2: SSH2_MSG_IGNORE");
+      case SSH2_MSG_DEBUG:
+      case SSH2_MSG_UNIMPLEMENTED:
+      case SSH2_MSG_EXT_INFO:
         break;
+
       case SSH2_MSG_DISCONNECT:
-        int discreason = p.getInt32();
-        String discreason1 = p.getString();
-        /*String discreason2 = p.getString();*/
-        System.out.println("SSH2: SSH2_MSG_DISCONNECT(" + discreason + "," + discreason1 + "," + /*discreason2+*/")");
+        {
+          int discreason = p.getInt32();
+          String description = p.getString();
+          if (debug > 0)
+            System.err.println("SSH2: SSH2_MSG_DISCONNECT(" + discreason + "," + description + ")");
+          return "\r\nSSH2 disconnect: " + description + "\r\n";
+        }
 
-        return "\nSSH2 disconnect: " + discreason1 + "\n";
+      case SSH2_MSG_KEXINIT:
+        {
+          I_S = p.getMessage();
+          p.getBytes(16); // cookie
+          String kexalgs = p.getString();
+          String hostkeyalgs = p.getString();
+          String encalgc2s = p.getString();
+          String encalgs2c = p.getString();
+          String macalgc2s = p.getString();
+          String macalgs2c = p.getString();
+          String compalgc2s = p.getString();
+          String compalgs2c = p.getString();
+          if (debug > 0)
+            System.err.println("SSH2: KEXINIT " + kexalgs + " " + hostkeyalgs + " " + encalgc2s + " " + macalgc2s);
+
+          // the first algorithm of ours the server supports wins
+          kexalg = negotiate(SshKex.getAlgorithms(), kexalgs);
+          hostkeyalg = negotiate(SshKex.getHostKeyAlgorithms(), hostkeyalgs);
+          cipher2 = negotiate(getCiphers2(), encalgc2s);
+          String cipher_s2c = negotiate(getCiphers2(), encalgs2c);
+          mac_c2s = negotiate(SshMac.getAlgorithms(), macalgc2s);
+          mac_s2c = negotiate(SshMac.getAlgorithms(), macalgs2c);
+          if (kexalg == null || hostkeyalg == null || cipher2 == null ||
+              mac_c2s == null || mac_s2c == null ||
+              negotiate("none", compalgc2s) == null ||
+              negotiate("none", compalgs2c) == null)
+            return Send_SSH2_MSG_DISCONNECT(3, "no matching algorithms");
+          // we use the same cipher in both directions
+          if (!cipher2.equals(cipher_s2c))
+            return Send_SSH2_MSG_DISCONNECT(3, "asymmetric ciphers are not supported");
+
+          // the server starts a key exchange of its own
+          if (!kexinit_sent) Send_SSH2_MSG_KEXINIT();
+
+          kex = new SshKex(kexalg);
+          SshPacket2 pn = new SshPacket2(SSH2_MSG_KEXDH_INIT);
+          kex.putPublicKey(pn);
+          sendPacket2(pn);
+          break;
+        }
+
+      case SSH2_MSG_KEXDH_REPLY:
+        {
+          if (kex == null)
+            return Send_SSH2_MSG_DISCONNECT(2, "unexpected key exchange reply");
+          byte[] K_S = p.getBytes(p.getInt32());
+          kex.readReply(p);
+          byte[] signature = p.getBytes(p.getInt32());
+
+          SshPacket2 h = new SshPacket2((byte) 0);
+          h.putString(V_C);
+          h.putString(V_S);
+          h.putString(I_C);
+          h.putString(I_S);
+          h.putString(K_S);
+          byte[] H = kex.getExchangeHash(h);
+          if (session_id == null) session_id = H;
+
+          if (!SshKex.verify(K_S, signature, H, hostkeyalg))
+            return Send_SSH2_MSG_DISCONNECT(9, "host key signature not correct");
+
+          // we check if the MD5 of the host key equals the applet parameter
+          if (hashHostKey != null && hashHostKey.compareTo("") != 0) {
+            byte[] Md5_hostKey = md5.digest(K_S);
+            String hashHostKeyBis = "";
+            for (int i = 0; i < Md5_hostKey.length; i++)
+              hashHostKeyBis += Integer.toHexString((Md5_hostKey[i] >> 4) & 15)
+                + Integer.toHexString(Md5_hostKey[i] & 15);
+            if (!hashHostKeyBis.equalsIgnoreCase(hashHostKey)) {
+              login = password = "";
+              Send_SSH2_MSG_DISCONNECT(9, "host key not accepted");
+              return "\nHash value of the host key not correct \r\n"
+                + "login & password have been reset \r\n"
+                + "- erase the 'hashHostKey' parameter in the Html\r\n"
+                + "(it is used for auhentificating the server and "
+                + "prevent you from connecting \r\n"
+                + "to any other)\r\n";
+            }
+          }
+
+          String[] cipher = null;
+          for (int i = 0; i < ciphers2.length; i++)
+            if (ciphers2[i][0].equals(cipher2)) cipher = ciphers2[i];
+          int keylen = Integer.parseInt(cipher[2]);
+          try {
+            newcrypto = new SshCrypto(cipher[1], 16,
+              kex.deriveKey(H, 'C', session_id, keylen),
+              kex.deriveKey(H, 'A', session_id, 16),
+              new SshMac(mac_c2s, kex.deriveKey(H, 'E', session_id,
+                                                SshMac.getKeyLength(mac_c2s))),
+              kex.deriveKey(H, 'D', session_id, keylen),
+              kex.deriveKey(H, 'B', session_id, 16),
+              new SshMac(mac_s2c, kex.deriveKey(H, 'F', session_id,
+                                                SshMac.getKeyLength(mac_s2c))));
+          } catch (NoSuchAlgorithmException e) {
+            return Send_SSH2_MSG_DISCONNECT(3, e.toString());
+          }
+          kex = null;
+          Send_SSH2_MSG_NEWKEYS();
+          break;
+        }
 
       case SSH2_MSG_NEWKEYS:
         {
-          System.out.println("SSH2: SSH2_MSG_NEWKEYS");
-          sendPacket2(new SshPacket2(SSH2_MSG_NEWKEYS));
+          // packets from now on are protected by the new keys
+          boolean first = rcvcrypto == null;
+          rcvcrypto = newcrypto;
+          newcrypto = null;
+          if (first) {
+            SshPacket2 pn = new SshPacket2(SSH2_MSG_SERVICE_REQUEST);
+            pn.putString("ssh-userauth");
+            sendPacket2(pn);
+          }
+          break;
+        }
 
-          byte[] session_key = new byte[16];
+      case SSH2_MSG_SERVICE_ACCEPT:
+        authmethod = "password";
+        Send_SSH2_MSG_USERAUTH_REQUEST();
+        break;
 
-          crypto = new SshCrypto(cipher_type, session_key);
+      case SSH2_MSG_USERAUTH_BANNER:
+        return p.getString();
 
-          SshPacket2 pn = new SshPacket2(SSH2_MSG_SERVICE_REQUEST);
-          pn.putString("ssh-userauth");
+      case SSH2_MSG_USERAUTH_FAILURE:
+        {
+          String methods = p.getString();
+          // some servers only offer passwords via keyboard-interactive
+          if (authmethod.equals("password") &&
+              negotiate("keyboard-interactive", methods) != null) {
+            authmethod = "keyboard-interactive";
+            Send_SSH2_MSG_USERAUTH_REQUEST();
+            break;
+          }
+          login = password = "";
+          Send_SSH2_MSG_DISCONNECT(14, "authentication failed");
+          return "\nLogin & password not accepted\r\n";
+        }
+
+      case SSH2_MSG_USERAUTH_INFO_REQUEST:
+        {
+          p.getString(); // name
+          p.getString(); // instruction
+          p.getString(); // language tag
+          int prompts = p.getInt32();
+          // answer every prompt with the password
+          SshPacket2 pn = new SshPacket2(SSH2_MSG_USERAUTH_INFO_RESPONSE);
+          pn.putInt32(prompts);
+          for (int i = 0; i < prompts; i++)
+            pn.putString(password);
           sendPacket2(pn);
           break;
         }
-      case SSH2_MSG_SERVICE_ACCEPT:
+
+      case SSH2_MSG_USERAUTH_SUCCESS:
         {
-          System.out.println("Service Accept: " + p.getString());
-          break;
+          SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_OPEN);
+          pn.putString("session");
+          pn.putInt32(0);                 // our channel number
+          pn.putInt32(WINDOW);
+          pn.putInt32(MAX_PACKET);
+          sendPacket2(pn);
+          localWindow = WINDOW;
+          return "\nLogin & password accepted\r\n";
         }
-      case SSH2_MSG_KEXINIT:
+
+      case SSH2_MSG_GLOBAL_REQUEST:
         {
-          byte[] fupp;
-          System.out.println("SSH2: SSH2_MSG_KEXINIT");
-          byte kexcookie[] = p.getBytes(16); // unused.
+          p.getString(); // request name
+          if (p.getByte() != 0)
+            sendPacket2(new SshPacket2(SSH2_MSG_REQUEST_FAILURE));
+          break;
+        }
 
-          String kexalgs = p.getString();
-          System.out.println("- " + kexalgs);
-          String hostkeyalgs = p.getString();
-          System.out.println("- " + hostkeyalgs);
-          String encalgc2s = p.getString();
-          System.out.println("- " + encalgc2s);
-          String encalgs2c = p.getString();
-          System.out.println("- " + encalgs2c);
-          String macalgc2s = p.getString();
-          System.out.println("- " + macalgc2s);
-          String macalgs2c = p.getString();
-          System.out.println("- " + macalgs2c);
-          String compalgc2s = p.getString();
-          System.out.println("- " + compalgc2s);
-          String compalgs2c = p.getString();
-          System.out.println("- " + compalgs2c);
-          String langc2s = p.getString();
-          System.out.println("- " + langc2s);
-          String langs2c = p.getString();
-          System.out.println("- " + langs2c);
-          fupp = p.getBytes(1);
-          System.out.println("- first_kex_follows: " + fupp[0]);
-          /* int32 reserved (0) */
-
-          SshPacket2 pn = new SshPacket2(SSH2_MSG_KEXINIT);
-          byte[] kexsend = new byte[16];
-          String ciphername;
-          pn.putBytes(kexsend);
-          pn.putString("diffie-hellman-group1-sha1");
-          pn.putString("ssh-rsa");
-
-          /* FIXME: check if it really is in the encalgc2s */
-          cipher_type = "NONE";
-          ciphername = "none";
-
-          /* FIXME: dito for HMAC */
-
-          pn.putString("none");
-          pn.putString("none");
-          pn.putString("hmac-md5");
-          pn.putString("hmac-md5");
-          pn.putString("none");
-          pn.putString("none");
-          pn.putString("");
-          pn.putString("");
-          pn.putByte((byte) 0);
-          pn.putInt32(0);
+      case SSH2_MSG_CHANNEL_OPEN_CONFIRMATION:
+        {
+          p.getInt32(); // our channel
+          synchronized (this) {
+            remoteChannel = p.getInt32();
+            remoteWindow = p.getInt32() & 0xffffffffL;
+            // we never send more than we would accept ourselves
+            remoteMaxPacket = (int) Math.min(p.getInt32() & 0xffffffffL,
+                                             MAX_PACKET);
+            channelOpen = true;
+          }
+          Send_SSH2_pty_req();
+          SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_REQUEST);
+          pn.putInt32(remoteChannel);
+          pn.putString("shell");
+          pn.putByte((byte) 1);           // want reply
           sendPacket2(pn);
+          break;
+        }
 
-          pn = new SshPacket2(SSH2_MSG_KEXDH_INIT);
-          pn.putMpInt(BigInteger.valueOf(0xdeadbeef));
+      case SSH2_MSG_CHANNEL_OPEN_FAILURE:
+        p.getInt32(); // our channel
+        p.getInt32(); // reason code
+        return "\r\nSSH2: could not open session: " + p.getString() + "\r\n";
+
+      case SSH2_MSG_CHANNEL_WINDOW_ADJUST:
+        p.getInt32(); // our channel
+        synchronized (this) {
+          // the window can not grow beyond 2^32-1
+          remoteWindow = Math.min(remoteWindow + (p.getInt32() & 0xffffffffL),
+                                  0xffffffffL);
+          flush();
+        }
+        break;
+
+      case SSH2_MSG_CHANNEL_DATA:
+      case SSH2_MSG_CHANNEL_EXTENDED_DATA:
+        {
+          int channel = p.getInt32();
+          // for extended data only stderr (1) is defined
+          boolean show = p.getType() == SSH2_MSG_CHANNEL_DATA
+            || p.getInt32() == 1;
+          int length = p.getInt32();
+          if (length < 0 || length > p.getRemaining())
+            return Send_SSH2_MSG_DISCONNECT(2, "bad channel data length");
+          // we have only the session channel, number 0
+          if (channel != 0 || !channelOpen)
+            break;
+          if (show)
+            output(p.getData(), p.getOffset(), length);
+          p.skip(length);
+          // refill the window early so the server does not have to wait
+          localWindow -= length;
+          if (localWindow < WINDOW / 2) {
+            SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_WINDOW_ADJUST);
+            pn.putInt32(remoteChannel);
+            pn.putInt32(WINDOW - localWindow);
+            sendPacket2(pn);
+            localWindow = WINDOW;
+          }
+          break;
+        }
+
+      case SSH2_MSG_CHANNEL_EOF:
+        break;
+
+      case SSH2_MSG_CHANNEL_CLOSE:
+        {
+          synchronized (this) {
+            channelOpen = false;
+            cansenddata = false;
+          }
+          SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_CLOSE);
+          pn.putInt32(remoteChannel);
           sendPacket2(pn);
+          Send_SSH2_MSG_DISCONNECT(11, "channel closed");
           break;
         }
-      case SSH2_MSG_KEXDH_REPLY:
+
+      case SSH2_MSG_CHANNEL_REQUEST:
         {
-          String result;
-
-          System.out.println("SSH2_MSG_KEXDH_REPLY");
-          int bloblen = p.getInt32();
-          System.out.println("bloblen is " + bloblen);
-          /* the blob has a substructure:
-           * 	String type
-           * 	if RSA:
-           * 		bignum1
-           * 		bignum2
-           * 	if DSA:
-           * 		bignum1,2,3,4
-           */
-          String keytype = p.getString();
-          System.out.println("KEXDH: " + keytype);
-          if (keytype.equals("ssh-rsa")) {
-            rsa_e = p.getMpInt();
-            rsa_n = p.getMpInt();
-            result = "\n\rSSH-RSA (" + rsa_n + "," + rsa_e + ")\n\r";
-          } else {
-            return "\n\rUnsupported kexdh algorithm " + keytype + "!\n\r";
+          p.getInt32(); // our channel
+          String request = p.getString();
+          boolean reply = p.getByte() != 0;
+          if (request.equals("exit-status") && debug > 0)
+            System.err.println("SSH2: exit status " + p.getInt32());
+          if (reply) {
+            SshPacket2 pn = new SshPacket2(SSH2_MSG_CHANNEL_FAILURE);
+            pn.putInt32(remoteChannel);
+            sendPacket2(pn);
           }
-          BigInteger dhserverpub = p.getMpInt();
-          result += "DH Server Pub: " + dhserverpub + "\n\r";
-
-          /* signature is a new blob, length is Int32. */
-          /*
-           * RSA:
-           * 	String 		type (ssh-rsa)
-           * 	Int32/byte[]	signed signature
-           */
-          int siglen = p.getInt32();
-          String sigstr = p.getString();
-          result += "Signature: ktype is " + sigstr + "\r\n";
-          byte sigdata[] = p.getBytes(p.getInt32());
-
-          return result;
+          break;
         }
+
+      case SSH2_MSG_CHANNEL_SUCCESS:
+        // the shell is running, send what has been typed so far
+        synchronized (this) {
+          cansenddata = true;
+          if (dataToSend != null) {
+            // typed before we knew the protocol version
+            String str = dataToSend;
+            dataToSend = null;
+            sendData(str);
+          } else
+            flush();
+        }
+        break;
+
+      case SSH2_MSG_CHANNEL_FAILURE:
+        return "\r\nSSH2: the server refused to start a shell\r\n";
+
       default:
-        return "SSH2: handlePacket2 Unknown type " + p.getType();
+        if (debug > 0)
+          System.err.println("SSH2: handlePacket2 Unknown type " + p.getType());
+        break;
     }
     return "";
   }
 
+  /**
+   * Find the first algorithm of our list that is in the list of the server.
+   * @param ours our comma separated list in order of preference
+   * @param theirs the comma separated list of the server
+   * @return the algorithm or null if there is none in both lists
+   */
+  private static String negotiate(String ours, String theirs) {
+    String[] a = ours.split(",");
+    String[] b = theirs.split(",");
+    for (int i = 0; i < a.length; i++)
+      for (int j = 0; j < b.length; j++)
+        if (a[i].length() > 0 && a[i].equals(b[j]))
+          return a[i];
+    return null;
+  }
+
+  /** @return the SSH2 ciphers available on this platform */
+  private static String getCiphers2() {
+    String list = "";
+    for (int i = 0; i < ciphers2.length; i++)
+      try {
+        if (JCECipher.getInstance(ciphers2[i][1]) != null)
+          list += (list.length() > 0 ? "," : "") + ciphers2[i][0];
+      } catch (Throwable t) {
+        // no JCE available
+      }
+    return list;
+  }
+
 
   private String handlePacket1(SshPacket1 p)
     throws IOException { //the message to handle is data and its length is
@@ -635,7 +997,11 @@ public abstract class SshIO {
         break;
 
       case SSH_SMSG_STDOUT_DATA: //receive some data from the server
-        return p.getString();
+        // hand the data on as it is, without making a string of it
+        int length = p.getInt32();
+        output(p.getData(), p.getOffset(), length);
+        p.skip(length);
+        return "";
 
       case SSH_SMSG_STDERR_DATA: //receive some error data from the server
         //	if(debug > 1)
@@ -678,12 +1044,17 @@ public abstract class SshIO {
     return "";
   } // handlePacket
 
-  private void sendPacket1(SshPacket1 packet) throws IOException {
+  /**
+   * Encrypt and write a packet. The reader, the terminal and the write
+   * queue all send, so this is serialized: the ciphers keep their chaining
+   * state and scratch space and are not thread-safe.
+   */
+  private synchronized void sendPacket1(SshPacket1 packet) throws IOException {
     write(packet.getPayLoad(crypto));
     lastPacketSentType = packet.getType();
   }
 
-  private void sendPacket2(SshPacket2 packet) throws IOException {
+  private synchronized void sendPacket2(SshPacket2 packet) throws IOException {
     write(packet.getPayLoad(crypto, outgoingseq));
     outgoingseq++;
     lastPacketSentType = packet.getType();
@@ -916,4 +1287,172 @@ public abstract class SshIO {
     sendPacket1(packet);
     return "";
   }
+
+  /**
+   * SSH2_MSG_KEXINIT
+   *   byte[16]     cookie
+   *   name-lists   algorithms in order of preference
+   *   boolean      first_kex_packet_follows
+   *   uint32       0 (reserved)
+   */
+  private void Send_SSH2_MSG_KEXINIT() throws IOException {
+    SshPacket2 p = new SshPacket2(SSH2_MSG_KEXINIT);
+    byte[] cookie = new byte[16];
+    new SecureRandom().nextBytes(cookie);
+    p.putBytes(cookie);
+    p.putString(SshKex.getAlgorithms());
+    p.putString(SshKex.getHostKeyAlgorithms());
+    p.putString(getCiphers2());
+    p.putString(getCiphers2());
+    p.putString(SshMac.getAlgorithms());
+    p.putString(SshMac.getAlgorithms());
+    p.putString("none");
+    p.putString("none");
+    p.putString("");
+    p.putString("");
+    p.putByte((byte) 0);
+    p.putInt32(0);
+
+    // the payload goes into the exchange hash
+    byte[] data = p.getData();
+    I_C = new byte[data.length + 1];
+    I_C[0] = SSH2_MSG_KEXINIT;
+    System.arraycopy(data, 0, I_C, 1, data.length);
+    synchronized (this) {
+      // no channel data until the new keys are in use
+      kexinit_sent = true;
+      sendPacket2(p);
+    }
+  }
+
+  /**
+   * SSH2_MSG_NEWKEYS
+   * Everything sent after this uses the new keys.
+   */
+  private synchronized void Send_SSH2_MSG_NEWKEYS() throws IOException {
+    sendPacket2(new SshPacket2(SSH2_MSG_NEWKEYS));
+    crypto = newcrypto;
+    kexinit_sent = false;
+    flush();
+  }
+
+  /**
+   * SSH2_MSG_DISCONNECT
+   *   uint32       reason code
+   *   string       description
+   *   string       language tag
+   */
+  private String Send_SSH2_MSG_DISCONNECT(int reason, String description)
+    throws IOException {
+    SshPacket2 p = new SshPacket2(SSH2_MSG_DISCONNECT);
+    p.putInt32(reason);
+    p.putString(description);
+    p.putString("");
+    sendPacket2(p);
+    return "\r\nSSH2 disconnect: " + description + "\r\n";
+  }
+
+  /**
+   * SSH2_MSG_USERAUTH_REQUEST
+   *   string       user name
+   *   string       "ssh-connection"
+   *   string       method, with its fields
+   */
+  private void Send_SSH2_MSG_USERAUTH_REQUEST() throws IOException {
+    SshPacket2 p = new SshPacket2(SSH2_MSG_USERAUTH_REQUEST);
+    p.putString(login);
+    p.putString("ssh-connection");
+    p.putString(authmethod);
+    if (authmethod.equals("password")) {
+      p.putByte((byte) 0);
+      p.putString(password);
+    } else {
+      p.putString("");            // language tag
+      p.putString("");            // submethods
+    }
+    sendPacket2(p);
+  }
+
+  /**
+   * SSH2_MSG_CHANNEL_REQUEST "pty-req"
+   *   string       TERM environment variable value (e.g. vt100)
+   *   uint32       terminal width and height, characters and pixels
+   *   string       encoded terminal modes
+   */
+  private void Send_SSH2_pty_req() throws IOException {
+    SshPacket2 p = new SshPacket2(SSH2_MSG_CHANNEL_REQUEST);
+    p.putInt32(remoteChannel);
+    p.putString("pty-req");
+    p.putByte((byte) 0);
+    p.putString(getTerminalType());
+    p.putInt32(80);		// columns
+    p.putInt32(24);		// rows
+    p.putInt32(0);		// x pixels
+    p.putInt32(0);		// y pixels
+    p.putString(new byte[] { 0 });  // TTY_OP_END
+    sendPacket2(p);
+  }
+
+  /**
+   * SSH2_MSG_CHANNEL_REQUEST "window-change"
+   */
+  private synchronized void Send_SSH2_window_change(int c, int r)
+    throws IOException {
+    // the message would be held up by a key exchange, the next one will do
+    if (!channelOpen || kexinit_sent) return;
+    SshPacket2 p = new SshPacket2(SSH2_MSG_CHANNEL_REQUEST);
+    p.putInt32(remoteChannel);
+    p.putString("window-change");
+    p.putByte((byte) 0);
+    p.putInt32(c);
+    p.putInt32(r);
+    p.putInt32(0);
+    p.putInt32(0);
+    sendPacket2(p);
+  }
+
+  /**
+   * Queue data for the session channel and send as much of it as the
+   * window of the server allows.
+   */
+  private synchronized void Send_SSH2_CHANNEL_DATA(byte[] data, int off,
+                                                   int len)
+    throws IOException {
+    if (pending.length - pendEnd < len) {
+      int size = pendEnd - pendStart;
+      byte[] tmp = pending;
+      // grow only if moving the waiting data to the front is not enough
+      if (tmp.length - size < len)
+        tmp = new byte[Math.max(2 * tmp.length, size + len)];
+      System.arraycopy(pending, pendStart, tmp, 0, size);
+      pending = tmp;
+      pendStart = 0;
+      pendEnd = size;
+    }
+    System.arraycopy(data, off, pending, pendEnd, len);
+    pendEnd += len;
+    flush();
+  }
+
+  /**
+   * SSH2_MSG_CHANNEL_DATA
+   *   uint32       recipient channel
+   *   string       data
+   */
+  private synchronized void flush() throws IOException {
+    while (channelOpen && cansenddata && !kexinit_sent &&
+           pendStart < pendEnd && remoteWindow > 0 && remoteMaxPacket > 0) {
+      int n = pendEnd - pendStart;
+      if (n > remoteWindow) n = (int) remoteWindow;
+      if (n > remoteMaxPacket) n = remoteMaxPacket;
+      dataPacket.clear();
+      dataPacket.putInt32(remoteChannel);
+      dataPacket.putString(pending, pendStart, n);
+      sendPacket2(dataPacket);
+      remoteWindow -= n;
+      pendStart += n;
+    }
+    if (pendStart == pendEnd)
+      pendStart = pendEnd = 0;
+  }
 }
@@ -0,0 +1,291 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import javax.crypto.KeyAgreement;
+
+/**
+ * The SSH2 key exchange (RFC 4253, 8731) and host key verification. One
+ * instance does one key exchange: it creates our key pair, computes the
+ * shared secret from the reply of the server and derives the keys.
+ *
+ * @version $Id$
+ */
+public class SshKex {
+
+  private final static String CURVE25519 = "curve25519-sha256";
+  private final static String GROUP14_SHA256 = "diffie-hellman-group14-sha256";
+  private final static String GROUP14_SHA1 = "diffie-hellman-group14-sha1";
+
+  /** the 2048 bit MODP group from RFC 3526 */
+  private final static BigInteger P14 = new BigInteger(
+    "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74" +
+    "020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437" +
+    "4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED" +
+    "EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF05" +
+    "98DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB" +
+    "9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B" +
+    "E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF695581718" +
+    "3995497CEA956AE515D2261898FA051015728E5A8AACAA68FFFFFFFFFFFFFFFF", 16);
+  private final static BigInteger G14 = BigInteger.valueOf(2);
+
+  /** X.509 encodings of raw X25519 and Ed25519 keys start like this */
+  private final static byte[] X25519_PREFIX = {
+    0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x03, 0x21, 0x00
+  };
+  private final static byte[] ED25519_PREFIX = {
+    0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00
+  };
+
+  private String algorithm;
+  private MessageDigest hash;
+
+  /** curve25519: our key pair, raw public keys */
+  private KeyPair keyPair;
+  private byte[] clientPub, serverPub;
+
+  /** diffie hellman: our secret exponent and the public values */
+  private BigInteger x, e, f;
+
+  private BigInteger secret;
+
+  /**
+   * Return the key exchange algorithms available on this platform, in
+   * order of preference.
+   */
+  public static String getAlgorithms() {
+    String list = GROUP14_SHA256 + "," + GROUP14_SHA1;
+    try {
+      KeyAgreement.getInstance("X25519");
+      list = CURVE25519 + "," + list;
+    } catch (Throwable t) {
+      // older runtime
+    }
+    return list;
+  }
+
+  /**
+   * Return the host key algorithms we can verify, in order of preference.
+   */
+  public static String getHostKeyAlgorithms() {
+    String list = "rsa-sha2-512,rsa-sha2-256,ssh-rsa";
+    try {
+      Signature.getInstance("Ed25519");
+      list = "ssh-ed25519," + list;
+    } catch (Throwable t) {
+      // older runtime
+    }
+    return list;
+  }
+
+  /**
+   * Start a key exchange and create our key pair.
+   * @param algorithm the negotiated key exchange algorithm
+   */
+  public SshKex(String algorithm) throws IOException {
+    this.algorithm = algorithm;
+    try {
+      if (algorithm.equals(CURVE25519)) {
+        hash = MessageDigest.getInstance("SHA-256");
+        keyPair = KeyPairGenerator.getInstance("X25519").generateKeyPair();
+        byte[] encoded = keyPair.getPublic().getEncoded();
+        clientPub = new byte[32];
+        System.arraycopy(encoded, encoded.length - 32, clientPub, 0, 32);
+      } else if (algorithm.equals(GROUP14_SHA256) ||
+                 algorithm.equals(GROUP14_SHA1)) {
+        hash = MessageDigest.getInstance(
+          algorithm.equals(GROUP14_SHA1) ? "SHA" : "SHA-256");
+        x = new BigInteger(512, new SecureRandom());
+        e = G14.modPow(x, P14);
+      } else
+        throw new IOException("unknown key exchange " + algorithm);
+    } catch (IOException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new IOException("key exchange " + algorithm + ": " + ex);
+    }
+  }
+
+  /** Add our public value to the SSH_MSG_KEX*_INIT packet. */
+  public void putPublicKey(SshPacket2 p) {
+    if (keyPair != null)
+      p.putString(clientPub);
+    else
+      p.putMpInt(e);
+  }
+
+  /**
+   * Read the public value of the server from the reply packet and
+   * compute the shared secret.
+   */
+  public void readReply(SshPacket2 p) throws IOException {
+    try {
+      if (keyPair != null) {
+        serverPub = p.getBytes(p.getInt32());
+        if (serverPub.length != 32)
+          throw new IOException("bad curve25519 key");
+        KeyFactory kf = KeyFactory.getInstance("X25519");
+        PublicKey pub = kf.generatePublic(
+          new X509EncodedKeySpec(concat(X25519_PREFIX, serverPub)));
+        KeyAgreement ka = KeyAgreement.getInstance("X25519");
+        ka.init(keyPair.getPrivate());
+        ka.doPhase(pub, true);
+        secret = new BigInteger(1, ka.generateSecret());
+      } else {
+        f = p.getMpInt();
+        if (f.compareTo(BigInteger.ONE) <= 0 ||
+            f.compareTo(P14.subtract(BigInteger.ONE)) >= 0)
+          throw new IOException("bad diffie hellman value");
+        secret = f.modPow(x, P14);
+      }
+    } catch (IOException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new IOException("key exchange " + algorithm + ": " + ex);
+    }
+  }
+
+  /**
+   * Compute the exchange hash H.
+   * @param data the start of the hashed data: V_C, V_S, I_C, I_S and K_S
+   */
+  public byte[] getExchangeHash(SshPacket2 data) {
+    if (keyPair != null) {
+      data.putString(clientPub);
+      data.putString(serverPub);
+    } else {
+      data.putMpInt(e);
+      data.putMpInt(f);
+    }
+    data.putMpInt(secret);
+    return hash.digest(data.getData());
+  }
+
+  /**
+   * Derive a key from the shared secret (RFC 4253, section 7.2).
+   * @param H the exchange hash
+   * @param letter 'A' to 'F' depending on the key
+   * @param sessionId the exchange hash of the first key exchange
+   * @param length the length of the key in bytes
+   */
+  public byte[] deriveKey(byte[] H, char letter, byte[] sessionId,
+                          int length) {
+    SshPacket2 k = new SshPacket2((byte) 0);
+    k.putMpInt(secret);
+    byte[] K = k.getData();
+
+    hash.update(K);
+    hash.update(H);
+    hash.update((byte) letter);
+    hash.update(sessionId);
+    byte[] key = hash.digest();
+    while (key.length < length) {
+      hash.update(K);
+      hash.update(H);
+      hash.update(key);
+      key = concat(key, hash.digest());
+    }
+    byte[] result = new byte[length];
+    System.arraycopy(key, 0, result, 0, length);
+    return result;
+  }
+
+  /**
+   * Check the signature of the exchange hash made with the host key.
+   * @param hostKey the host key blob K_S
+   * @param signature the signature blob
+   * @param H the exchange hash
+   * @param algorithm the negotiated host key algorithm
+   * @return true if the signature is correct
+   */
+  public static boolean verify(byte[] hostKey, byte[] signature, byte[] H,
+                               String algorithm)
+    throws IOException {
+    SshPacket2 key = new SshPacket2((byte) 0);
+    key.putData(hostKey);
+    SshPacket2 sig = new SshPacket2((byte) 0);
+    sig.putData(signature);
+    try {
+      String keytype = key.getString();
+      String sigtype = sig.getString();
+      byte[] sigdata = sig.getBytes(sig.getInt32());
+      // the server must not fall back to another (weaker) algorithm
+      if (!sigtype.equals(algorithm))
+        throw new IOException("signature " + sigtype
+                              + " does not match host key algorithm "
+                              + algorithm);
+      Signature s;
+      PublicKey pub;
+      if (keytype.equals("ssh-rsa") && (algorithm.equals("rsa-sha2-512")
+                                        || algorithm.equals("rsa-sha2-256")
+                                        || algorithm.equals("ssh-rsa"))) {
+        BigInteger e = key.getMpInt();
+        BigInteger n = key.getMpInt();
+        pub = KeyFactory.getInstance("RSA").generatePublic(
+          new RSAPublicKeySpec(n, e));
+        if (algorithm.equals("rsa-sha2-512"))
+          s = Signature.getInstance("SHA512withRSA");
+        else if (algorithm.equals("rsa-sha2-256"))
+          s = Signature.getInstance("SHA256withRSA");
+        else
+          s = Signature.getInstance("SHA1withRSA");
+      } else if (keytype.equals("ssh-ed25519") && algorithm.equals(keytype)) {
+        pub = KeyFactory.getInstance("Ed25519").generatePublic(
+          new X509EncodedKeySpec(concat(ED25519_PREFIX,
+                                        key.getBytes(key.getInt32()))));
+        s = Signature.getInstance("Ed25519");
+      } else
+        throw new IOException("host key " + keytype
+                              + " does not match host key algorithm "
+                              + algorithm);
+      s.initVerify(pub);
+      s.update(H);
+      return s.verify(sigdata);
+    } catch (IOException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new IOException("host key verification: " + ex);
+    }
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] r = new byte[a.length + b.length];
+    System.arraycopy(a, 0, r, 0, a.length);
+    System.arraycopy(b, 0, r, a.length, b.length);
+    return r;
+  }
+}
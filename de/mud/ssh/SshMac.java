@@ -0,0 +1,154 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.ssh;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The HMAC (RFC 2104) used to protect SSH2 packets. It is built on the
+ * message digests of java.security and keeps its scratch buffers, so no
+ * memory is allocated per packet.
+ *
+ * @version $Id$
+ */
+public class SshMac {
+
+  /** the SSH2 names, digest algorithms and digest block sizes we know */
+  private final static String[][] algorithms = {
+    {"hmac-sha2-256", "SHA-256", "64"},
+    {"hmac-sha2-512", "SHA-512", "128"},
+    {"hmac-sha1", "SHA", "64"},
+  };
+
+  private MessageDigest md;
+  private byte[] ipad, opad;
+  private byte[] inner, outer;
+  private byte[] seq = new byte[4];
+
+  /**
+   * Create a new HMAC.
+   * @param name the SSH2 name of the MAC algorithm
+   * @param key the key, at least as long as the digest
+   */
+  public SshMac(String name, byte[] key) throws NoSuchAlgorithmException {
+    int i = find(name);
+    if (i < 0)
+      throw new NoSuchAlgorithmException(name);
+    md = MessageDigest.getInstance(algorithms[i][1]);
+    int blocksize = Integer.parseInt(algorithms[i][2]);
+    int length = md.getDigestLength();
+
+    ipad = new byte[blocksize];
+    opad = new byte[blocksize];
+    for (int j = 0; j < blocksize; j++) {
+      byte k = j < length ? key[j] : 0;
+      ipad[j] = (byte) (k ^ 0x36);
+      opad[j] = (byte) (k ^ 0x5c);
+    }
+    inner = new byte[length];
+    outer = new byte[length];
+  }
+
+  private static int find(String name) {
+    for (int i = 0; i < algorithms.length; i++)
+      if (algorithms[i][0].equals(name)) return i;
+    return -1;
+  }
+
+  /**
+   * Return the MAC algorithms available on this platform, in order of
+   * preference.
+   */
+  public static String getAlgorithms() {
+    String list = "";
+    for (int i = 0; i < algorithms.length; i++)
+      try {
+        MessageDigest.getInstance(algorithms[i][1]);
+        list += (list.length() > 0 ? "," : "") + algorithms[i][0];
+      } catch (NoSuchAlgorithmException e) {
+        // not available
+      }
+    return list;
+  }
+
+  /**
+   * Return the length of the key for a MAC algorithm.
+   * @param name the SSH2 name of the MAC algorithm
+   */
+  public static int getKeyLength(String name) {
+    try {
+      return MessageDigest.getInstance(algorithms[find(name)][1]).getDigestLength();
+    } catch (Exception e) {
+      return 0;
+    }
+  }
+
+  /** @return the length of the MAC in bytes */
+  public int getLength() {
+    return outer.length;
+  }
+
+  /**
+   * Compute the MAC of a packet and store it in dest.
+   * @param seqnr the sequence number of the packet
+   */
+  public void compute(int seqnr, byte[] b, int off, int len,
+                      byte[] dest, int destOff) {
+    seq[0] = (byte) (seqnr >>> 24);
+    seq[1] = (byte) (seqnr >>> 16);
+    seq[2] = (byte) (seqnr >>> 8);
+    seq[3] = (byte) seqnr;
+    try {
+      md.update(ipad);
+      md.update(seq);
+      md.update(b, off, len);
+      md.digest(inner, 0, inner.length);
+      md.update(opad);
+      md.update(inner);
+      md.digest(outer, 0, outer.length);
+    } catch (DigestException e) {
+      throw new IllegalStateException("SshMac: " + e);
+    }
+    System.arraycopy(outer, 0, dest, destOff, outer.length);
+  }
+
+  /**
+   * Check the MAC of a packet.
+   * @param seqnr the sequence number of the packet
+   * @param mac the buffer holding the received MAC at macOff
+   * @return true if the MAC is correct
+   */
+  public boolean verify(int seqnr, byte[] b, int off, int len,
+                        byte[] mac, int macOff) {
+    compute(seqnr, b, off, len, inner, 0);
+    int diff = 0;
+    for (int i = 0; i < inner.length; i++)
+      diff |= inner[i] ^ mac[macOff + i];
+    return diff == 0;
+  }
+}
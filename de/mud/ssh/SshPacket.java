@@ -25,6 +25,7 @@
 
 package de.mud.ssh;
 
+import java.io.IOException;
 import java.math.BigInteger;
 
 abstract class SshPacket {
@@ -34,23 +35,74 @@ abstract class SshPacket {
   // Data management
   protected byte[] byteArray = new byte[0];
   protected int offset;
+  /** where the data in byteArray ends */
+  protected int length;
   private boolean finished = false;
 
+  /**
+   * @return the array holding the data, for a packet that was cleared and
+   *         filled again it may be longer than the data
+   */
   public byte[] getData() {
     return byteArray;
   }
 
+  /** @return where the data ends, for a packet to send its size */
+  public int getLength() {
+    return length;
+  }
+
   public void putData(byte[] data) {
     byteArray = data;
     offset = 0;
+    length = data.length;
+    finished = true;
+  }
+
+  /**
+   * Use a part of an array as data without copying it. This is used for
+   * received packets that are decoded in their own buffer.
+   * @param data the array holding the data
+   * @param off the offset of the data in the array
+   * @param end where the data ends in the array
+   */
+  protected void putData(byte[] data, int off, int end) {
+    byteArray = data;
+    offset = off;
+    length = end;
     finished = true;
   }
 
+  /**
+   * Forget about the last packet received, see reset(). A packet to send
+   * can be filled again after this, keeping its array.
+   */
+  protected void clear() {
+    finished = false;
+    offset = 0;
+    length = 0;
+  }
+
   public boolean isFinished() {
     return finished;
   }
 
-  abstract public byte[] addPayload(byte[] buff);
+  /**
+   * Add received data to the packet until it is finished.
+   * @param buff the buffer with the data
+   * @param off the offset of the data in the buffer
+   * @param len the amount of bytes available
+   * @return the amount of bytes used, the rest belongs to the next packet
+   */
+  abstract public int addPayload(byte[] buff, int off, int len)
+    throws IOException;
+
+  /**
+   * Prepare a finished packet for receiving the next one. The data of the
+   * last packet is not valid anymore afterwards.
+   * @param crypto the crypto to decrypt the next packet
+   */
+  abstract public void reset(SshCrypto crypto);
 
 
   // Type
@@ -93,14 +145,24 @@ abstract class SshPacket {
   public String getString() {
     int length = getInt32();
 
-    String str = "";
-    for (int i = 0; i < length; i++) {
-      if (byteArray[offset] >= 0)
-        str += (char) (byteArray[offset++]);
-      else
-        str += (char) (256 + byteArray[offset++]);
-    }
-    return str;
+    char[] str = new char[length];
+    for (int i = 0; i < length; i++)
+      str[i] = (char) (byteArray[offset++] & 0xff);
+    return new String(str);
+  }
+
+  /** @return the position of the next item in the data */
+  public int getOffset() {
+    return offset;
+  }
+
+  /** @return the number of bytes after the position of the next item */
+  public int getRemaining() {
+    return length - offset;
+  }
+
+  public void skip(int cnt) {
+    offset += cnt;
   }
 
   public byte getByte() {
@@ -115,21 +177,25 @@ abstract class SshPacket {
     return bytes;
   }
 
+  /** Make room for howmuch more bytes and add them to the data. */
   private void grow(int howmuch) {
-    byte[] value = new byte[byteArray.length + howmuch];
-    System.arraycopy(byteArray, 0, value, 0, byteArray.length);
-    byteArray = value;
+    if (byteArray.length - length < howmuch) {
+      byte[] value = new byte[length + howmuch];
+      System.arraycopy(byteArray, 0, value, 0, length);
+      byteArray = value;
+    }
+    length += howmuch;
   }
 
   public void putInt16(int xint) {
-    int boffset = byteArray.length;
+    int boffset = length;
     grow(2);
     byteArray[boffset + 1] = (byte) ((xint) & 0xff);
     byteArray[boffset] = (byte) ((xint >> 8) & 0xff);
   }
 
   public void putInt32(int xint) {
-    int boffset = byteArray.length;
+    int boffset = length;
     grow(4);
     byteArray[boffset + 3] = (byte) ((xint) & 0xff);
     byteArray[boffset + 2] = (byte) ((xint >> 8) & 0xff);
@@ -139,13 +205,17 @@ abstract class SshPacket {
 
   public void putByte(byte xbyte) {
     grow(1);
-    byteArray[byteArray.length - 1] = xbyte;
+    byteArray[length - 1] = xbyte;
   }
 
   public void putBytes(byte[] bytes) {
-    int oldlen = byteArray.length;
-    grow(bytes.length);
-    System.arraycopy(bytes, 0, byteArray, oldlen, bytes.length);
+    putBytes(bytes, 0, bytes.length);
+  }
+
+  public void putBytes(byte[] bytes, int off, int len) {
+    int oldlen = length;
+    grow(len);
+    System.arraycopy(bytes, off, byteArray, oldlen, len);
   }
 
 
@@ -156,7 +226,15 @@ abstract class SshPacket {
    * @param str: The string to be added.
    */
   public void putString(String str) {
-    putInt32(str.length());
-    putBytes(str.getBytes());
+    putString(str.getBytes());
+  }
+
+  public void putString(byte[] str) {
+    putString(str, 0, str.length);
+  }
+
+  public void putString(byte[] str, int off, int len) {
+    putInt32(len);
+    putBytes(str, off, len);
   }
 }
@@ -39,8 +39,8 @@ public class SshPacket1 extends SshPacket {
   private byte[] padding = null;
   private byte[] crc_array = new byte[4];
   private byte[] block = null;
-  private byte[] encryptedBlock = null;							// encrypted part (Padding + Type + Data + Check)
-  private byte[] decryptedBlock = null;							// decrypted part (Padding + Type + Data + Check)
+  private byte[] receiveBlock = null;						// (Padding + Type + Data + Check), decrypted in place
+  private int receiveLength = 0;
 
   private SshCrypto crypto = null;
 
@@ -51,6 +51,13 @@ public class SshPacket1 extends SshPacket {
     crypto = _crypto;
   }
 
+  public void reset(SshCrypto _crypto) {
+    clear();
+    position = 0;
+    phase_packet = PHASE_packet_length;
+    crypto = _crypto;
+  }
+
   public SshPacket1(byte newType) {
     setType(newType);
   }
@@ -122,7 +129,7 @@ public class SshPacket1 extends SshPacket {
 
     //encrypt
     if (crypto != null)
-      block = crypto.encrypt(block);
+      crypto.encrypt(block, 0, block, 0, block.length);
     byte[] full = new byte[block.length + 4];
     System.arraycopy(packet_length_array, 0, full, 0, 4);
     System.arraycopy(block, 0, full, 4, block.length);
@@ -134,11 +141,11 @@ public class SshPacket1 extends SshPacket {
   private final int PHASE_packet_length = 0;
   private final int PHASE_block = 1;
 
-  public byte[] addPayload(byte[] buff) {
-    int boffset = 0;
-    byte newbuf[] = null;
+  public int addPayload(byte[] buff, int off, int len) {
+    int boffset = off;
+    int end = off + len;
 
-    while (boffset < buff.length) {
+    while (boffset < end) {
       switch (phase_packet) {
 
         // 4 bytes
@@ -156,7 +163,10 @@ public class SshPacket1 extends SshPacket {
               ((packet_length_array[0] & 0xff) << 24);
             position = 0;
             phase_packet++;
-            block = new byte[8 * (packet_length / 8 + 1)];
+            // keep the block of the last packet if it is large enough
+            receiveLength = 8 * (packet_length / 8 + 1);
+            if (receiveBlock == null || receiveBlock.length < receiveLength)
+              receiveBlock = new byte[receiveLength];
           }
           break; //switch (phase_packet)
 
@@ -164,84 +174,54 @@ public class SshPacket1 extends SshPacket {
 
         case PHASE_block:
 
-          if (block.length > position) {
-            if (boffset < buff.length) {
-              int amount = buff.length - boffset;
-              if (amount > block.length - position)
-                amount = block.length - position;
-              System.arraycopy(buff, boffset, block, position, amount);
-              boffset += amount;
-              position += amount;
-            }
+          if (receiveLength > position) {
+            int amount = end - boffset;
+            if (amount > receiveLength - position)
+              amount = receiveLength - position;
+            System.arraycopy(buff, boffset, receiveBlock, position, amount);
+            boffset += amount;
+            position += amount;
           }
 
-          if (position == block.length) { //the block is complete
-            if (buff.length > boffset) {  //there is more than 1 packet in buff
-              newbuf = new byte[buff.length - boffset];
-              System.arraycopy(buff, boffset, newbuf, 0, buff.length - boffset);
-            }
-            int blockOffset = 0;
+          if (position == receiveLength) { //the block is complete
             //padding
             int padding_length = (int) (8 - (packet_length % 8));
-            padding = new byte[padding_length];
 
             if (crypto != null)
-              decryptedBlock = crypto.decrypt(block);
-            else
-              decryptedBlock = block;
+              crypto.decrypt(receiveBlock, 0, receiveBlock, 0, receiveLength);
 
-            if (decryptedBlock.length != padding_length + packet_length)
+            if (receiveLength != padding_length + packet_length)
               System.out.println("???");
 
-            for (int i = 0; i < padding.length; i++)
-              padding[i] = decryptedBlock[blockOffset++];
-
             //packet type
-            setType(decryptedBlock[blockOffset++]);
-
-            byte[] data;
-            //data
-            if (packet_length > 5) {
-              data = new byte[packet_length - 5];
-              System.arraycopy(decryptedBlock, blockOffset, data, 0, packet_length - 5);
-              blockOffset += packet_length - 5;
-            } else
-              data = null;
-            putData(data);
+            setType(receiveBlock[padding_length]);
+
+            //data, it stays where it is
+            putData(receiveBlock, padding_length + 1,
+                    padding_length + packet_length - 4);
+
             //crc
-            for (int i = 0; i < crc_array.length; i++)
-              crc_array[i] = decryptedBlock[blockOffset++];
             if (!checkCrc())
               System.err.println("SshPacket1: CRC wrong in received packet!");
 
-            return newbuf;
+            return boffset - off;
           }
           break;
       }
     }
-    return null;
+    return len;
   };
 
   private boolean checkCrc() {
-    byte[] crc_arrayCheck = new byte[4];
-    long crcCheck;
-
-    crcCheck = SshMisc.crc32(decryptedBlock, decryptedBlock.length - 4);
-    crc_arrayCheck[3] = (byte) (crcCheck & 0xff);
-    crc_arrayCheck[2] = (byte) ((crcCheck >> 8) & 0xff);
-    crc_arrayCheck[1] = (byte) ((crcCheck >> 16) & 0xff);
-    crc_arrayCheck[0] = (byte) ((crcCheck >> 24) & 0xff);
-
-    if (debug) {
-      System.err.println(crc_arrayCheck[3] + " == " + crc_array[3]);
-      System.err.println(crc_arrayCheck[2] + " == " + crc_array[2]);
-      System.err.println(crc_arrayCheck[1] + " == " + crc_array[1]);
-      System.err.println(crc_arrayCheck[0] + " == " + crc_array[0]);
-    }
-    if (crc_arrayCheck[3] != crc_array[3]) return false;
-    if (crc_arrayCheck[2] != crc_array[2]) return false;
-    if (crc_arrayCheck[1] != crc_array[1]) return false;
-    if (crc_arrayCheck[0] != crc_array[0]) return false;
-    return true;
+    int i = receiveLength - 4;
+    long crcCheck = SshMisc.crc32(receiveBlock, i) & 0xffffffffL;
+    long crc = ((receiveBlock[i] & 0xffL) << 24) |
+      ((receiveBlock[i + 1] & 0xff) << 16) |
+      ((receiveBlock[i + 2] & 0xff) << 8) |
+      (receiveBlock[i + 3] & 0xff);
+
+    if (debug)
+      System.err.println(crcCheck + " == " + crc);
+    return crcCheck == crc;
   }
 } //class
@@ -25,26 +25,31 @@
 
 package de.mud.ssh;
 
-
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 
 /**
+ * A SSH2 packet (RFC 4253). Received packets are decoded by one instance
+ * per connection that keeps its buffer: the first block is decrypted to
+ * learn the length, the rest is decrypted in place once it is complete
+ * and the MAC has been checked. The payload stays in the buffer.
+ *
  * @author Marcus Meissner
  * @version $Id$
  */
 public class SshPacket2 extends SshPacket {
 
-  private final static boolean debug = true;
+  private final static boolean debug = false;
+
+  /** the largest packet we accept, RFC 4253 asks for at least 35000 */
+  private final static int MAX_PACKET = 256 * 1024;
+
+  private static SecureRandom random;
 
   //SSH_RECEIVE_PACKET
-  private byte[] packet_length_array = new byte[5];				// 4 bytes
   private int packet_length = 0;	// 32-bit sign int
   private int padlen = 0;		// packet length 1 byte unsigned
-  private byte[] crc_array = new byte[4];	// 32-bit crc
-
 
   private int position 			= 0;
   private int phase_packet 		= 0;
@@ -53,6 +58,13 @@ public class SshPacket2 extends SshPacket {
 
   private SshCrypto crypto = null;
 
+  /** the sequence number of the packet being received */
+  private int seqnr = 0;
+
+  /** the received packet: length, padding length, payload, padding, MAC */
+  private byte block[] = new byte[1024];
+  private int blockLength;
+
   public SshPacket2(SshCrypto _crypto) {
     /* receiving packet */
     position = 0;
@@ -60,223 +72,141 @@ public class SshPacket2 extends SshPacket {
     crypto = _crypto;
   }
 
+  public void reset(SshCrypto _crypto) {
+    clear();
+    position = 0;
+    phase_packet = PHASE_packet_length;
+    crypto = _crypto;
+  }
+
   public SshPacket2(byte newType) {
     setType(newType);
   }
 
   /**
    * Return the mp-int at the position offset in the data
-   * First 4 bytes are the number of bytes in the integer, msb first
-   * (for example, the value 0x00012345 would have 17 bits).  The
-   * value zero has zero bits.  It is permissible that the number of
-   * bits be larger than the real number of bits.
-   * The number of bits is followed by (bits + 7) / 8 bytes of binary
-   * data, msb first, giving the value of the integer.
+   * First 4 bytes are the number of bytes in the integer, msb first.
+   * The number of bytes is followed by the two's complement of the
+   * value, msb first.
    */
-	
-  public BigInteger getMpInt() { 
+  public BigInteger getMpInt() {
     return new BigInteger(1,getBytes(getInt32()));
   }
 
   public void putMpInt(BigInteger bi) {
-    byte[] mpbytes = bi.toByteArray(), xbytes;
-    int i;
-
-    for (i = 0; (i < mpbytes.length) && ( mpbytes[i] == 0 ) ; i++) /* EMPTY */ ;
-    xbytes = new byte[mpbytes.length - i];
-    System.arraycopy(mpbytes,i,xbytes,0,mpbytes.length - i);
+    // toByteArray() already has a leading zero if the msb is set
+    putString(bi.toByteArray());
+  }
 
-    putInt32(mpbytes.length - i);
-    putBytes(xbytes);
+  /** @return a copy of the message type and data of a received packet */
+  public byte[] getMessage() {
+    byte[] message = new byte[packet_length - padlen - 1];
+    System.arraycopy(block, 5, message, 0, message.length);
+    return message;
   }
 
-  public byte[] getPayLoad(SshCrypto xcrypt, long seqnr)
-  throws IOException {
+  public byte[] getPayLoad(SshCrypto xcrypt, long seqnr) {
     byte[] data = getData();
+    int datalen = getLength();
 
-    int blocksize = 8;
-
-    // crypted data is: 
-    // packet length [ payloadlen + padlen + type + data ]
-    packet_length = 4 + 1 + 1;
-    if (data!=null)
-      packet_length += data.length;
+    int blocksize = xcrypt == null ? 8 : xcrypt.getBlockSize();
+    SshMac mac = xcrypt == null ? null : xcrypt.getSendMac();
+    int maclen = mac == null ? 0 : mac.getLength();
 
-    // pad it up to full blocksize.
-    // If not crypto, zeroes, otherwise random. 
-    // (zeros because we do not want to tell the attacker the state of our
-    //  random generator)
-    int padlen = blocksize - (packet_length % blocksize);
+    // [ packet length, padding length, packet type, data, padding ]
+    int length = 4 + 1 + 1 + datalen;
+    int padlen = blocksize - (length % blocksize);
     if (padlen < 4) padlen += blocksize;
 
-    byte[] padding = new byte[padlen];
-    System.out.println("packet length is "+packet_length+", padlen is "+padlen);
-    if (xcrypt == null)
-      for(int i=0; i<padlen; i++) padding[i] = 0;
-    else
-      for(int i=0; i<padlen; i++) padding[i] = SshMisc.getNotZeroRandomByte();
-
-    // [ packetlength, padlength, padding, packet type, data ]
-    byte[] block = new byte[ packet_length + padlen ];
-
-    int xlen = padlen + packet_length - 4;
+    byte[] block = new byte[length + padlen + maclen];
+    int xlen = length + padlen - 4;
+    block[0] = (byte) ((xlen >> 24) & 0xff);
+    block[1] = (byte) ((xlen >> 16) & 0xff);
+    block[2] = (byte) ((xlen >> 8) & 0xff);
     block[3] = (byte) (xlen & 0xff);
-    block[2] = (byte) ((xlen>>8) & 0xff);
-    block[1] = (byte) ((xlen>>16) & 0xff);
-    block[0] = (byte) ((xlen>>24) & 0xff);
-
-    block[4] = (byte)padlen;
+    block[4] = (byte) padlen;
     block[5] = getType();
-    System.arraycopy(data,0,block,6,data.length);
-    System.arraycopy(padding,0,block,6+data.length,padlen);
+    System.arraycopy(data, 0, block, 6, datalen);
 
-    byte[] md5sum;
     if (xcrypt != null) {
-      MessageDigest md5 = null;
-      try {
-        md5 = MessageDigest.getInstance("MD5");
-      } catch (NoSuchAlgorithmException e) {
-        System.err.println("SshPacket2: unable to load message digest algorithm: "+e);
+      synchronized (SshPacket2.class) {
+        if (random == null) random = new SecureRandom();
+        byte[] padding = new byte[padlen];
+        random.nextBytes(padding);
+        System.arraycopy(padding, 0, block, length, padlen);
       }
-      byte[] seqint = new byte[4];
-
-      seqint[0] = (byte)((seqnr >> 24) & 0xff);
-      seqint[1] = (byte)((seqnr >> 16) & 0xff);
-      seqint[2] = (byte)((seqnr >>  8) & 0xff);
-      seqint[3] = (byte)((seqnr      ) & 0xff);
-      md5.update(seqint,0,4);
-      md5.update(block,0,block.length);
-      md5sum = md5.digest();
-    } else {
-      md5sum = new byte[0];
+      if (mac != null)
+        mac.compute((int) seqnr, block, 0, length + padlen,
+                    block, length + padlen);
+      xcrypt.encrypt(block, 0, block, 0, length + padlen);
     }
-
-    if (xcrypt != null)
-      block = xcrypt.encrypt(block);
-
-    byte[] sendblock = new byte[block.length + md5sum.length];
-    System.arraycopy(block,0,sendblock,0,block.length);
-    System.arraycopy(md5sum,0,sendblock,block.length,md5sum.length);
-    return sendblock;
+    return block;
   };
 
-  private byte block[];
-
-  public byte[] addPayload(byte buff[]) {
-    int boffset = 0;
-    byte b;
-    byte[] newbuf = null;
-    int hmaclen = 0;
-
-    if (crypto!=null) hmaclen = 16;
-
-    System.out.println("addPayload2 "+buff.length);
-
-    /*
-     * Note: The whole packet is encrypted, except for the MAC.
-     *
-     * (So I have to rewrite it again).
-     */
-
-    while(boffset < buff.length) {
-      switch (phase_packet) {
-      // 4 bytes
-      // Packet length: 32 bit unsigned integer
-      // gives the length of the packet, not including the length field
-      // and padding.  maximum is 262144 bytes.
-
-      case PHASE_packet_length:
-	packet_length_array[position++] = buff[boffset++];
-	if (position==5) {
-	  packet_length =
-	     (packet_length_array[3]&0xff)	+
-	    ((packet_length_array[2]&0xff)<<8)	+
-	    ((packet_length_array[1]&0xff)<<16)	+
-	    ((packet_length_array[0]&0xff)<<24);
-	  padlen = packet_length_array[4];
-	  position=0;
-	  System.out.println("SSH2: packet length "+packet_length);
-	  System.out.println("SSH2: padlen "+padlen);
-	  packet_length += hmaclen; /* len(md5) */
-	  block = new byte[packet_length-1]; /* padlen already done */
-	  phase_packet++;
-	}
-	break; //switch (phase_packet)
-
-      //8*(packet_length/8 +1) bytes
-
-      case PHASE_block  :
-	if (position < block.length) {
-	  int amount = buff.length - boffset;
-	  if (amount > 0) {
-	    if (amount > block.length - position)
-	      amount = block.length - position;
-	    System.arraycopy(buff,boffset,block,position,amount);
-	    boffset	+= amount;
-	    position	+= amount;
-	  }
-	}
-	if (position==block.length) { //the block is complete
-	  if (buff.length>boffset) {
-	    newbuf = new byte[buff.length-boffset];
-	    System.arraycopy(buff,boffset,newbuf,0,buff.length-boffset);
-	  }
-	  byte[] decryptedBlock = new byte[block.length - hmaclen];
-	  byte[] data;
-	  packet_length -= hmaclen;
-
-	  System.arraycopy(block,0,decryptedBlock,0,block.length-hmaclen);
-
-	  if (crypto != null)
-	    decryptedBlock = crypto.decrypt(decryptedBlock);
-
-	  for (int i = 0; i < decryptedBlock.length; i++)
-		  System.out.print(" "+decryptedBlock[i]);
-	  System.out.println("");
-
-	  setType(decryptedBlock[0]);
-	  System.err.println("Packet type: "+getType());
-	  System.err.println("Packet len: "+packet_length);
+  public int addPayload(byte buff[], int off, int len) throws IOException {
+    int boffset = off;
+    int end = off + len;
+    int blocksize = crypto == null ? 8 : crypto.getBlockSize();
+    SshMac mac = crypto == null ? null : crypto.getReceiveMac();
+    int maclen = mac == null ? 0 : mac.getLength();
+
+    if (phase_packet == PHASE_packet_length) {
+      // the first block tells us the length of the packet
+      int amount = end - boffset;
+      if (amount > blocksize - position)
+        amount = blocksize - position;
+      System.arraycopy(buff, boffset, block, position, amount);
+      boffset += amount;
+      position += amount;
+      if (position < blocksize)
+        return len;
+
+      if (crypto != null)
+        crypto.decrypt(block, 0, block, 0, blocksize);
+      packet_length =
+          (block[3]&0xff)	+
+         ((block[2]&0xff)<<8)	+
+         ((block[1]&0xff)<<16)	+
+         ((block[0]&0xff)<<24);
+      padlen = block[4] & 0xff;
+      if (debug)
+        System.err.println("SSH2: packet length " + packet_length +
+                           ", padlen " + padlen);
+      if (packet_length < padlen + 2 || packet_length > MAX_PACKET ||
+          (packet_length + 4) % blocksize != 0)
+        throw new IOException("SSH2: bad packet length " + packet_length);
+
+      blockLength = packet_length + 4;
+      if (block.length < blockLength + maclen) {
+        byte[] tmp = new byte[blockLength + maclen];
+        System.arraycopy(block, 0, tmp, 0, blocksize);
+        block = tmp;
+      }
+      phase_packet = PHASE_block;
+    }
 
-	  //data
-	  if(packet_length > padlen+1+1)  {
-	    data = new byte[packet_length-1-padlen-1];
-	    System.arraycopy(decryptedBlock,1,data,0,data.length);
-	    putData(data);
-	  } else {
-	    putData(null);
-	  }
-	  /* MAC! */
-	  return newbuf;
-	}
-	break;
-      } 
-    } 
-    return null;
+    int amount = end - boffset;
+    if (amount > blockLength + maclen - position)
+      amount = blockLength + maclen - position;
+    System.arraycopy(buff, boffset, block, position, amount);
+    boffset += amount;
+    position += amount;
+    if (position < blockLength + maclen)
+      return len;
+
+    //the packet is complete
+    if (crypto != null)
+      crypto.decrypt(block, blocksize, block, blocksize, blockLength - blocksize);
+    if (mac != null && !mac.verify(seqnr, block, 0, blockLength, block, blockLength))
+      throw new IOException("SSH2: MAC error in received packet");
+    seqnr++;
+
+    setType(block[5]);
+    if (debug)
+      System.err.println("SSH2: packet type " + getType());
+
+    //data, it stays in the block
+    putData(block, 6, 4 + packet_length - padlen);
+    return boffset - off;
   };
-  /*
-
-  private boolean checkCrc(){
-    byte[] crc_arrayCheck = new byte[4];
-    long crcCheck;
-
-    crcCheck = SshMisc.crc32(decryptedBlock, decryptedBlock.length-4);
-    crc_arrayCheck[3] = (byte) (crcCheck & 0xff);
-    crc_arrayCheck[2] = (byte) ((crcCheck>>8) & 0xff);
-    crc_arrayCheck[1] = (byte) ((crcCheck>>16) & 0xff);
-    crc_arrayCheck[0] = (byte) ((crcCheck>>24) & 0xff);
-
-    if(debug) {
-      System.err.println(crc_arrayCheck[3]+" == "+crc_array[3]);
-      System.err.println(crc_arrayCheck[2]+" == "+crc_array[2]);
-      System.err.println(crc_arrayCheck[1]+" == "+crc_array[1]);
-      System.err.println(crc_arrayCheck[0]+" == "+crc_array[0]);
-    }
-    if	(crc_arrayCheck[3] != crc_array[3]) return false;
-    if	(crc_arrayCheck[2] != crc_array[2]) return false;
-    if	(crc_arrayCheck[1] != crc_array[1]) return false;
-    if	(crc_arrayCheck[0] != crc_array[0]) return false;
-    return true;
-  }
-  */
 }
@@ -107,17 +107,12 @@ public class SshWrapper extends Wrapper {
                 break;
         }
     }
-    handler.sendData(new String(arr));
+    handler.sendData(arr, 0, arr.length);
     if(getPrompt() != null)
       return waitfor(getPrompt());
     return null;
   }
 
-  /** Buffer for SSH input */
-  private byte[] buffer;
-  /** Position in SSH input buffer */
-  private int pos;
-  
   /**
    * Read data from the backend and decrypt it. This is a buffering read
    * as the encrypted information is usually smaller than its decrypted
@@ -128,39 +123,16 @@ public class SshWrapper extends Wrapper {
    */
   public int read(byte[] b) throws IOException {
     // Empty the buffer before we do anything else
-    if(buffer != null) {
-      int amount = ((buffer.length - pos) <= b.length) ? 
-                      buffer.length - pos : b.length;
-      System.arraycopy(buffer, pos, b, 0, amount);
-      if(pos + amount < buffer.length) {
-        pos += amount;
-      } else 
-        buffer = null;
-      return amount;
-    }
+    if(handler.available() > 0)
+      return handler.read(b, 0, b.length);
  
     // now that the buffer is empty let's read more data and decrypt it
     int n = in.read(b);
     if(n > 0) {
-      byte[] tmp = new byte[n];
-      System.arraycopy(b, 0, tmp, 0, n);
-      pos = 0;
-      buffer = handler.handleSSH(tmp);
-      if(debug > 0 && buffer != null && buffer.length > 0)
-        System.err.println("ssh: "+buffer);
-
-      if(buffer != null && buffer.length > 0) {
-        if(debug > 0) 
-	  System.err.println("ssh: incoming="+n+" now="+buffer.length);
-	int amount = buffer.length <= b.length ?  buffer.length : b.length;
-        System.arraycopy(buffer, 0, b, 0, amount);
-	pos = n = amount;
-	if(amount == buffer.length) {
-	  buffer = null;
-	  pos = 0;
-	}
-      } else
-        return 0;
+      int amount = handler.handleSSH(b, 0, n);
+      if(debug > 0) 
+	System.err.println("ssh: incoming="+n+" now="+amount);
+      return handler.read(b, 0, b.length);
     }
     return n;
   }
@@ -27,6 +27,8 @@ package de.mud.telnet;
 
 import java.io.IOException;
 import java.awt.Dimension;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import java.lang.Byte;
 /**
@@ -46,8 +48,21 @@ public abstract class TelnetProtocolHandler {
   /** debug level */
   private final static int debug = 0;
 
-  /** temporary buffer for data-telnetstuff-data transformation */
-  private byte[] tempbuf = new byte[0];
+  /** input buffer for data-telnetstuff-data transformation */
+  private byte[] inbuf = new byte[4096];
+  /** start and end of the data not yet negotiated in inbuf */
+  private int inOffset = 0, inLimit = 0;
+  /** buffer for replies sent during negotiation */
+  private byte[] sendbuf = new byte[3];
+  /** buffer for transposed data sent to the remote host */
+  private byte[] outbuf = new byte[1024];
+
+  /** decompresses the input while MCCP is active, null otherwise */
+  private Inflater inflater;
+  /** compressed input not yet decompressed */
+  private byte[] zbuf = new byte[4096];
+  /** start and end of the compressed input in zbuf */
+  private int zOffset = 0, zLimit = 0;
 
   /** the data sent on pressing <RETURN>  \n */
   private byte[] crlf = new byte[2];
@@ -94,6 +109,30 @@ public abstract class TelnetProtocolHandler {
    */
   protected abstract void write(byte[] b) throws IOException;
 
+  private byte[] writeBuffer = new byte[0];
+
+  /**
+   * Send part of an array to the remote host. The default implementation
+   * copies the data through an array kept for the next call, if
+   * necessary, and calls write(byte[]). Override it if the back end can
+   * send parts of an array directly.
+   * @param b array holding the bytes to send
+   * @param off offset of the first byte
+   * @param len number of bytes
+   * @see #write(byte[] b)
+   */
+  protected void write(byte[] b, int off, int len) throws IOException {
+    if (off == 0 && len == b.length) {
+      write(b);
+      return;
+    }
+    synchronized (this) {
+      if (writeBuffer.length != len) writeBuffer = new byte[len];
+      System.arraycopy(b, off, writeBuffer, 0, len);
+      write(writeBuffer);
+    }
+  }
+
   /**
    * Send one byte to the remote host.
    * @param b the byte to be sent
@@ -111,6 +150,12 @@ public abstract class TelnetProtocolHandler {
    */
   public void reset() {
     neg_state = 0;
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+    inOffset = inLimit = 0;
+    zOffset = zLimit = 0;
     receivedDX = new byte[256]; 
     sentDX = new byte[256];
     receivedWX = new byte[256]; 
@@ -170,6 +215,8 @@ public abstract class TelnetProtocolHandler {
   private final static byte TELOPT_NAWS  = (byte)31;  /* NA-WindowSize*/
   /** Telnet option: Terminal Type */
   private final static byte TELOPT_TTYPE  = (byte)24;  /* terminal type */
+  /** Telnet option: MUD Client Compression Protocol v2 */
+  private final static byte TELOPT_COMPRESS2 = (byte)86;  /* MCCP2 */
 
   private final static byte[] IACWILL  = { IAC, WILL };
   private final static byte[] IACWONT  = { IAC, WONT };
@@ -230,6 +277,10 @@ public abstract class TelnetProtocolHandler {
     if(debug > 1) 
       System.err.println("TelnetIO.handle_sb("+type+")");
     switch (type) {
+    case TELOPT_COMPRESS2:
+      if (debug > 0) System.err.println("MCCP: compression starts");
+      inflater = new Inflater();
+      break;
     case TELOPT_TTYPE: {
       if (sbdata.length>0 && sbdata[0]==TELQUAL_SEND) {
         /* FIXME: need more logic here if we use 
@@ -271,62 +322,66 @@ public abstract class TelnetProtocolHandler {
    * @param buf the data buffer to be sent
    */
   public void transpose(byte[] buf) throws IOException {
-    int i;
-    
-    byte[] nbuf,xbuf;
-    int nbufptr=0;
-    nbuf = new byte[buf.length*2]; // FIXME: buffer overflows possible
+    transpose(buf, 0, buf.length);
+  }
 
-    for (i = 0; i < buf.length ; i++) {
+  /**
+   * Transpose and send part of an array. Large amounts of data are
+   * sent in several parts.
+   * @param buf the array holding the data to be sent
+   * @param off offset of the first byte
+   * @param len number of bytes
+   * @see #transpose(byte[] buf)
+   */
+  public synchronized void transpose(byte[] buf, int off, int len)
+    throws IOException {
+    boolean binary = receivedDX[TELOPT_BINARY + 128] == DO;
+    // the most bytes a single byte may be transposed to
+    int expand = Math.max(2, Math.max(crlf.length, cr.length));
+    if (outbuf.length < expand) outbuf = new byte[expand * 2];
+    int nbufptr = 0;
+
+    for (int i = off; i < off + len; i++) {
+      if (outbuf.length - nbufptr < expand) {
+        write(outbuf, 0, nbufptr);
+        nbufptr = 0;
+      }
       switch (buf[i]) {
       // Escape IAC twice in stream ... to be telnet protocol compliant
       // this is there in binary and non-binary mode.
       case IAC:
-	nbuf[nbufptr++]=IAC;
-	nbuf[nbufptr++]=IAC;
+	outbuf[nbufptr++]=IAC;
+	outbuf[nbufptr++]=IAC;
 	break;
       // We need to heed RFC 854. LF (\n) is 10, CR (\r) is 13
       // we assume that the Terminal sends \n for lf+cr and \r for just cr
       // linefeed+carriage return is CR LF */ 
       case 10:	// \n
-        if (receivedDX[TELOPT_BINARY + 128 ] != DO) {
-	    while (nbuf.length - nbufptr < crlf.length) {
-		    xbuf = new byte[nbuf.length*2];
-		    System.arraycopy(nbuf,0,xbuf,0,nbufptr);
-		    nbuf = xbuf;
-	    }
+        if (!binary) {
 	    for (int j=0;j<crlf.length;j++)
-		nbuf[nbufptr++]=crlf[j];
-	    break;
+		outbuf[nbufptr++]=crlf[j];
 	} else {
 	    // copy verbatim in binary mode.
-	    nbuf[nbufptr++]=buf[i];
+	    outbuf[nbufptr++]=buf[i];
 	}
 	break;
       // carriage return is CR NUL */ 
       case 13:	// \r
-        if (receivedDX[TELOPT_BINARY + 128 ] != DO) {
-	    while (nbuf.length - nbufptr < cr.length) {
-		    xbuf = new byte[nbuf.length*2];
-		    System.arraycopy(nbuf,0,xbuf,0,nbufptr);
-		    nbuf = xbuf;
-	    }
+        if (!binary) {
 	    for (int j=0;j<cr.length;j++)
-		nbuf[nbufptr++]=cr[j];
+		outbuf[nbufptr++]=cr[j];
 	} else {
 	    // copy verbatim in binary mode.
-	    nbuf[nbufptr++]=buf[i];
+	    outbuf[nbufptr++]=buf[i];
 	}
 	break;
       // all other characters are just copied
       default:
-	nbuf[nbufptr++]=buf[i];
+	outbuf[nbufptr++]=buf[i];
 	break;
       }
     }
-    xbuf = new byte[nbufptr];
-    System.arraycopy(nbuf,0,xbuf,0,nbufptr);
-    write(xbuf);
+    write(outbuf, 0, nbufptr);
   }
 
   public void setCRLF(String xcrlf) { crlf = xcrlf.getBytes(); }
@@ -342,17 +397,53 @@ public abstract class TelnetProtocolHandler {
   public int negotiate(byte nbuf[])
   throws IOException
   {
-    int count = tempbuf.length;
-    byte[] buf = tempbuf;
-    byte sendbuf[] = new byte[3];
+    return negotiate(nbuf, 0, nbuf.length);
+  }
+
+  /**
+   * Handle telnet protocol negotiation and put the data out into a part
+   * of the buffer only.
+   * @param nbuf the byte buffer put out after negotiation
+   * @param off where to start putting data into the buffer
+   * @param len the maximum amount of bytes to put out
+   * @return number of bytes processed, 0 for none, and -1 for end of buffer.
+   * @see #negotiate(byte[])
+   */
+  public int negotiate(byte nbuf[], int off, int len)
+  throws IOException
+  {
+    if (inOffset == inLimit && inflater != null)
+      inflate();
+
+    int count = inLimit;
+    byte[] buf = inbuf;
     byte b,reply;
-    int boffset = 0, noffset = 0;
+    int boffset = inOffset, noffset = off, nlimit = off + len;
     boolean dobreak = false;
+    Inflater compressed = inflater;
 
-    if (count == 0) 	// buffer is empty.
+    if (boffset == count) 	// buffer is empty.
       return -1;
 
-    while(!dobreak && (boffset < count) && (noffset < nbuf.length)) {
+    while(!dobreak && (boffset < count) && (noffset < nlimit)) {
+      if (neg_state == STATE_DATA) {
+        // copy everything up to the next IAC in one go
+        int end = boffset, max = boffset + nlimit - noffset;
+        if (max > count)
+          max = count;
+        while (end < max && buf[end] != IAC)
+          end++;
+        System.arraycopy(buf, boffset, nbuf, noffset, end - boffset);
+        noffset += end - boffset;
+        boffset = end;
+        if (end < max) {
+          boffset++;
+          neg_state = STATE_IAC;
+          // leave the loop so we can sync, unless there is no data yet
+          dobreak = noffset > off;
+        }
+        continue;
+      }
       b=buf[boffset++];
       // of course, byte is a signed entity (-128 -> 127)
       // but apparently the SGI Netscape 3.0 doesn't seem
@@ -364,13 +455,6 @@ public abstract class TelnetProtocolHandler {
         System.err.print("byte: " + B.intValue()+ " ");
       }
       switch (neg_state) {
-      case STATE_DATA:
-        if (b==IAC) {
-          neg_state = STATE_IAC;
-	  dobreak = true; // leave the loop so we can sync.
-        } else 
-          nbuf[noffset++]=b;
-        break;
       case STATE_IAC:
         switch (b) {
         case IAC:
@@ -429,6 +513,10 @@ public abstract class TelnetProtocolHandler {
           if(debug > 2) System.err.println("BINARY");
           reply = DO;
           break;
+        case TELOPT_COMPRESS2:
+          if(debug > 2) System.err.println("COMPRESS2");
+          reply = DO;
+          break;
         default:
           if(debug > 2) System.err.println("<UNKNOWN,"+b+">");
           reply = DONT;
@@ -622,6 +710,9 @@ public abstract class TelnetProtocolHandler {
           break;
         case SE:
           handle_sb(current_sb,sbbuf);
+          // everything after IAC SB COMPRESS2 IAC SE is compressed
+          if (current_sb == TELOPT_COMPRESS2)
+            dobreak = true;
           current_sb = 0;
           neg_state = STATE_DATA;
           break;
@@ -641,18 +732,135 @@ public abstract class TelnetProtocolHandler {
         break;
       }
     }
-    // shrink tempbuf to new processed size.
-    byte[] xb = new byte[count-boffset];
-    System.arraycopy(tempbuf,boffset,xb,0,count-boffset);
-    tempbuf = xb;
-    return noffset;
+    if (compressed == null && inflater != null) {
+      // compression just started, the rest of the input is compressed
+      feedCompressed(buf, boffset, count - boffset);
+      boffset = count;
+    }
+    // skip the processed data, start over if everything is processed
+    if (boffset == count)
+      inOffset = inLimit = 0;
+    else
+      inOffset = boffset;
+    return noffset - off;
+  }
+
+  /**
+   * Decompress input into the empty input buffer. When the compressed
+   * stream ends the data following it is moved to the input buffer as is.
+   */
+  private void inflate() throws IOException {
+    int n;
+    try {
+      inflater.setInput(zbuf, zOffset, zLimit - zOffset);
+      n = inflater.inflate(inbuf, 0, inbuf.length);
+    } catch (DataFormatException e) {
+      throw new IOException("MCCP: " + e.getMessage());
+    }
+    zOffset = zLimit - inflater.getRemaining();
+    inOffset = 0;
+    inLimit = n;
+    if (inflater.finished()) {
+      if (debug > 0) System.err.println("MCCP: compression ends");
+      inflater.end();
+      inflater = null;
+      appendInput(zbuf, zOffset, zLimit - zOffset);
+      zOffset = zLimit = 0;
+    }
   }
 
+  /**
+   * Add data received from the remote host. The data is processed by
+   * the following calls of negotiate().
+   * @param b the data received
+   * @param len number of bytes
+   * @see #negotiate
+   */
   public void inputfeed(byte[] b, int len) {
-    byte[] xb = new byte[tempbuf.length+len];
+    inputfeed(b, 0, len);
+  }
+
+  /**
+   * Add a part of a buffer received from the remote host.
+   * @param b the data received
+   * @param off where the data starts in the buffer
+   * @param len number of bytes
+   * @see #inputfeed(byte[], int)
+   */
+  public void inputfeed(byte[] b, int off, int len) {
+    if (inflater != null)
+      feedCompressed(b, off, len);
+    else
+      appendInput(b, off, len);
+  }
+
+  /**
+   * Negotiate data received from the remote host without copying it
+   * into the input buffer first. As negotiation only removes bytes the
+   * result is put out at the start of the same range. Anything after the
+   * point where negotiation has to stop is kept for the next call of
+   * negotiate(), so the range may be reused once this returns.
+   * @param b the data received
+   * @param off where the data starts in the buffer
+   * @param len number of bytes
+   * @return number of bytes put out, 0 for none, and -1 for none at all
+   * @see #negotiate(byte[], int, int)
+   */
+  public int negotiateInPlace(byte[] b, int off, int len) throws IOException {
+    if (inOffset != inLimit || inflater != null) {
+      // there is still data waiting, it has to come first
+      inputfeed(b, off, len);
+      return negotiate(b, off, len);
+    }
+    byte[] keep = inbuf;
+    inbuf = b;
+    inOffset = off;
+    inLimit = off + len;
+    try {
+      return negotiate(b, off, len);
+    } finally {
+      int from = inOffset, left = inLimit - inOffset;
+      inbuf = keep;
+      inOffset = inLimit = 0;
+      if (left > 0)
+        appendInput(b, from, left);
+    }
+  }
 
-    System.arraycopy(tempbuf,0,xb,0,tempbuf.length);
-    System.arraycopy(b,0,xb,tempbuf.length,len);
-    tempbuf = xb;
+  private void appendInput(byte[] b, int off, int len) {
+    if (inbuf.length - inLimit < len) {
+      // move the data still to be processed to the front of the buffer
+      int left = inLimit - inOffset;
+      byte[] xb = inbuf;
+      if (inbuf.length - left < len) {
+        int size = inbuf.length * 2;
+        while (size - left < len) size *= 2;
+        xb = new byte[size];
+      }
+      System.arraycopy(inbuf,inOffset,xb,0,left);
+      inbuf = xb;
+      inOffset = 0;
+      inLimit = left;
+    }
+    System.arraycopy(b,off,inbuf,inLimit,len);
+    inLimit += len;
+  }
+
+  private void feedCompressed(byte[] b, int off, int len) {
+    if (zbuf.length - zLimit < len) {
+      int left = zLimit - zOffset;
+      byte[] xb = zbuf;
+      if (zbuf.length - left < len) {
+        int size = zbuf.length * 2;
+        while (size - left < len) size *= 2;
+        xb = new byte[size];
+      }
+      System.arraycopy(zbuf,zOffset,xb,0,left);
+      zbuf = xb;
+      zOffset = 0;
+      zLimit = left;
+    }
+    System.arraycopy(b,off,zbuf,zLimit,len);
+    zLimit += len;
   }
 }
@@ -0,0 +1,165 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meissner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.terminal;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Cache of rendered character cells for SwingTerminal. Each combination
+ * of character and attributes is rendered once into a large image and
+ * then copied to the screen, which is much faster than drawing the text
+ * again, especially with antialiased fonts. The atlas is bound to a font,
+ * a cell size and a set of resolved colors and has to be replaced if any
+ * of these change. When the atlas is full all cells are dropped.
+ *
+ * @version $Id$
+ */
+class GlyphAtlas {
+
+  /** number of cells per row and rows in the atlas image */
+  private final static int COLUMNS = 64, ROWS = 32;
+  /** size of the hash table, twice the number of cells */
+  private final static int TABLE_SIZE = 2 * COLUMNS * ROWS;
+
+  private final Font font;
+  private final int charWidth, charHeight, charDescent;
+  private final Color styles[];
+  private final SoftFont sf;
+
+  private BufferedImage image;                      /* the rendered cells */
+  private Graphics2D graphics;                   /* to render into image */
+  private long keys[] = new long[TABLE_SIZE];  /* character and attributes */
+  private int slots[] = new int[TABLE_SIZE];     /* cell index in image */
+  private int used;                             /* number of cells in use */
+  private char chars[] = new char[1];
+
+  /**
+   * Create a new atlas.
+   * @param font the normal font of the terminal
+   * @param charWidth width of a cell
+   * @param charHeight height of a cell
+   * @param charDescent base line descent
+   * @param styles the style table used to resolve the colors
+   * @param sf soft font for characters missing in the font
+   */
+  GlyphAtlas(Font font, int charWidth, int charHeight, int charDescent,
+             Color styles[], SoftFont sf) {
+    this.font = font;
+    this.charWidth = charWidth;
+    this.charHeight = charHeight;
+    this.charDescent = charDescent;
+    this.styles = styles;
+    this.sf = sf;
+    Arrays.fill(keys, -1);
+  }
+
+  /**
+   * Check if the cells in this atlas can still be used.
+   * @param font the normal font of the terminal
+   * @param charWidth width of a cell
+   * @param charHeight height of a cell
+   * @param styles the style table used to resolve the colors
+   * @return true if nothing relevant has changed
+   */
+  boolean matches(Font font, int charWidth, int charHeight, Color styles[]) {
+    return this.font == font && this.charWidth == charWidth
+      && this.charHeight == charHeight && this.styles == styles;
+  }
+
+  /**
+   * Draw a character cell, rendering it into the atlas first if needed.
+   * @param g the graphics to draw to
+   * @param ch the character
+   * @param attributes the attributes that change the look of the cell
+   * @param fg foreground color for these attributes
+   * @param bg background color for these attributes
+   * @param cellFont the font for these attributes
+   * @param x left edge of the cell
+   * @param y top edge of the cell
+   */
+  void drawGlyph(Graphics g, char ch, int attributes, Color fg, Color bg,
+                 Font cellFont, int x, int y) {
+    long key = ((long) attributes << 16) | ch;
+    int i = (int) (key ^ (key >>> 13)) * 0x9e3779b1 >>> 20 & (TABLE_SIZE - 1);
+    while (keys[i] != -1 && keys[i] != key)
+      i = (i + 1) & (TABLE_SIZE - 1);
+
+    int slot;
+    if (keys[i] == key)
+      slot = slots[i];
+    else {
+      if (used == COLUMNS * ROWS) {
+        // start over, the screen needs far less cells than that
+        Arrays.fill(keys, -1);
+        used = 0;
+        drawGlyph(g, ch, attributes, fg, bg, cellFont, x, y);
+        return;
+      }
+      keys[i] = key;
+      slot = slots[i] = used++;
+      render(g, slot, ch, attributes, fg, bg, cellFont);
+    }
+
+    int sx = (slot % COLUMNS) * charWidth, sy = (slot / COLUMNS) * charHeight;
+    g.drawImage(image, x, y, x + charWidth, y + charHeight,
+                sx, sy, sx + charWidth, sy + charHeight, null);
+  }
+
+  private void render(Graphics g, int slot, char ch, int attributes,
+                      Color fg, Color bg, Font cellFont) {
+    if (image == null) {
+      image = new BufferedImage(COLUMNS * charWidth, ROWS * charHeight,
+                                BufferedImage.TYPE_INT_RGB);
+      graphics = image.createGraphics();
+      // render text the same way as the display would
+      if (g instanceof Graphics2D)
+        graphics.setRenderingHints(((Graphics2D) g).getRenderingHints());
+    }
+
+    int sx = (slot % COLUMNS) * charWidth, sy = (slot / COLUMNS) * charHeight;
+    graphics.setClip(sx, sy, charWidth, charHeight);
+    graphics.setColor(bg);
+    graphics.fillRect(sx, sy, charWidth, charHeight);
+    graphics.setColor(fg);
+    if ((attributes & VDUBuffer.INVISIBLE) == 0) {
+      if (sf.inSoftFont(ch))
+        sf.drawChar(graphics, ch, sx, sy, charWidth, charHeight);
+      else {
+        chars[0] = ch;
+        graphics.setFont(cellFont);
+        graphics.drawChars(chars, 0, 1, sx, sy + charHeight - charDescent);
+      }
+    }
+    if ((attributes & VDUBuffer.UNDERLINE) != 0)
+      graphics.drawLine(sx, sy + charHeight - charDescent / 2,
+                        sx + charWidth, sy + charHeight - charDescent / 2);
+  }
+}
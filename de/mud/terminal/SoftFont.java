@@ -26,7 +26,7 @@
 package de.mud.terminal;
 
 import java.awt.*;
-import java.util.*;
+import java.awt.image.BufferedImage;
 
 /**
  * Any characters that are not available in standard java fonts may be
@@ -49,7 +49,16 @@ public class SoftFont {
 	final static private char	SF_HEIGHT= 2;
 	final static private char	SF_TYPE  = 3;
 	final static private char	SF_DATA  = 4;
-	java.util.Hashtable font;
+	/** fontdata entry + 1 for each character, 0 if not in the softfont */
+	private static char[] index;
+	/** number of colors glyph images are kept for */
+	final static private int	CACHE_COLORS = 16;
+	/** cell size the glyph images are rendered for */
+	private int	cacheWidth, cacheHeight;
+	/** colors and the glyph images rendered in that color */
+	private Color[] cacheColor = new Color[CACHE_COLORS];
+	private Image[][] cacheGlyphs = new Image[CACHE_COLORS][];
+	private int	cacheNext;
 	/** softfont characterdata */
 	private static char[][] fontdata = {
 	
@@ -1071,34 +1080,81 @@ public class SoftFont {
 	}};
 
 	public SoftFont() {
-		font = new java.util.Hashtable();
-		for (int i=0;i<fontdata.length;i++)
-			font.put(new Integer(fontdata[i][0]),new Integer(i));
-
+		synchronized (SoftFont.class) {
+			if (index != null)
+				return;
+			int max = 0;
+			for (int i=0;i<fontdata.length;i++)
+				if (fontdata[i][SF_CHAR] > max)
+					max = fontdata[i][SF_CHAR];
+			char[] idx = new char[max+1];
+			for (int i=0;i<fontdata.length;i++)
+				idx[fontdata[i][SF_CHAR]] = (char)(i+1);
+			index = idx;
+		}
 	}
 
 	public boolean inSoftFont(char c) {
 		boolean insoftfont;
 
-		insoftfont = (null!=font.get(new Integer(c)));
+		insoftfont = (c < index.length && index[c] != 0);
 		if (!insoftfont && (int)c>=0x100) {
 			System.out.println("Character "+((int)c)+" not in softfont");
 		}
 		return insoftfont;
 	}
 
+	/**
+	 * Draw a character using the current color of the graphics. The
+	 * character is rendered into an image once for each cell size and
+	 * color, which is then reused.
+	 */
 	public void drawChar(Graphics g,char c,int x,int y,int cw,int ch) {
+		int	entry;
+
+		if (c >= index.length || index[c] == 0 || cw <= 0 || ch <= 0)
+			return;
+		entry = index[c] - 1;
+
+		if (cw != cacheWidth || ch != cacheHeight) {
+			for (int i=0;i<CACHE_COLORS;i++) {
+				cacheColor[i] = null;
+				cacheGlyphs[i] = null;
+			}
+			cacheWidth = cw;
+			cacheHeight = ch;
+		}
+
+		Color color = g.getColor();
+		int i;
+		for (i=0;i<CACHE_COLORS;i++)
+			if (color.equals(cacheColor[i]))
+				break;
+		if (i == CACHE_COLORS) {
+			i = cacheNext;
+			cacheNext = (cacheNext+1) % CACHE_COLORS;
+			cacheColor[i] = color;
+			cacheGlyphs[i] = new Image[fontdata.length];
+		}
+
+		Image glyph = cacheGlyphs[i][entry];
+		if (glyph == null) {
+			glyph = new BufferedImage(cw,ch,BufferedImage.TYPE_INT_ARGB);
+			Graphics gg = glyph.getGraphics();
+			gg.setColor(color);
+			render(gg,entry,cw,ch);
+			gg.dispose();
+			cacheGlyphs[i][entry] = glyph;
+		}
+		g.drawImage(glyph,x,y,null);
+	}
+
+	private static void render(Graphics g,int entry,int cw,int ch) {
 		double	dw,dh;
-		Object	Ientry;
-		int	w,h,entry,i,fontwidth,fontheight;
+		int	w,h,i,fontwidth,fontheight;
 		
-		Ientry = font.get(new Integer(c));
-		if (Ientry == null)
-			return;
-		entry = ((Integer)Ientry).intValue();
 		fontwidth = fontdata[entry][SF_WIDTH];
 		fontheight = fontdata[entry][SF_HEIGHT];
-
 		dw = cw*1.0/fontwidth;
 		dh = ch*1.0/fontheight;
 
@@ -1109,8 +1165,8 @@ public class SoftFont {
 					//FIXME: 8 bit max currently...
 					if (0!=(fontdata[entry][h+SF_DATA] & (1<<(7-w)))) {
 						g.fillRect(
-							x+(int)(w*dw),
-							y+(int)(h*dh),
+							(int)(w*dw),
+							(int)(h*dh),
 							((int)((w+1)*dw))-(int)(w*dw),
 							((int)((h+1)*dh))-(int)(h*dh)
 						);
@@ -1128,8 +1184,8 @@ public class SoftFont {
 				xw = (fontdata[entry][i]&0x00F0)>>4;
 				xh = (fontdata[entry][i]&0x000F);
 				g.fillRect(
-					x+(int)(w*dw),
-					y+(int)(h*dh),
+					(int)(w*dw),
+					(int)(h*dh),
 					((int)((w+xw)*dw))-(int)(w*dw),
 					((int)((h+xh)*dh))-(int)(h*dh)
 				);
@@ -26,6 +26,8 @@
 package de.mud.terminal;
 
 import javax.swing.JScrollBar;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import java.awt.AWTEvent;
 import java.awt.AWTEventMulticaster;
 import java.awt.Color;
@@ -37,6 +39,8 @@ import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.Insets;
 import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
 import java.awt.event.FocusEvent;
@@ -82,6 +86,7 @@ public class SwingTerminal extends Component
   private boolean raised;            /* indicator if the border is raised */
 
   private Font normalFont;                                 /* normal font */
+  private Font boldFont;                     /* bold variant of that font */
   private FontMetrics fm;                         /* current font metrics */
   private int charWidth;                       /* current width of a char */
   private int charHeight;                     /* current height of a char */
@@ -95,9 +100,38 @@ public class SwingTerminal extends Component
   private SoftFont sf = new SoftFont();
 
   private boolean colorPrinting = false;	/* print display in color */
+  private boolean printing = false;        /* redraw() renders for print */
+
+  private boolean useGlyphAtlas = false;  /* draw cells from glyph atlas */
+  private GlyphAtlas glyphAtlas;             /* rendered character cells */
 
   private Image backingStore = null;
 
+  private char runChars[] = new char[0];      /* characters of a text run */
+
+  private int frameTime = 1000 / 60;      /* minimum time between frames */
+  private long lastFrame = 0;               /* when the last frame started */
+  private boolean framePending = false;      /* a frame will be rendered */
+  private Timer frameTimer;              /* delays frames that come early */
+
+  private int scrolls[] = new int[3 * 16];   /* scrolls not yet rendered */
+  private int scrollCount = 0;          /* number of values in scrolls[] */
+  private int cursorRow = -1;          /* row of the cursor drawn before */
+
+  /** renders the marked lines, runs on the event dispatch thread */
+  private final Runnable renderFrame = new Runnable() {
+    public void run() {
+      synchronized (SwingTerminal.this) {
+        framePending = false;
+        lastFrame = System.currentTimeMillis();
+      }
+      if (backingStore != null) {
+        redraw(backingStore.getGraphics());
+        repaint();
+      }
+    }
+  };
+
   /**
    * Create a color representation that is brighter than the standard
    * color but not what we would like to use for bold characters.
@@ -152,6 +186,17 @@ public class SwingTerminal extends Component
   private final static int COLOR_FG_STD = 7;
   private final static int COLOR_BG_STD = 0;
 
+  /** attributes that select the colors of a character */
+  private final static int STYLE_MASK = VDUBuffer.COLOR | VDUBuffer.BOLD
+    | VDUBuffer.LOW | VDUBuffer.INVERT;
+
+  /** foreground and background color resolved for each style */
+  private Color styleColors[];
+
+  /** attributes that change how a character cell looks */
+  private final static int GLYPH_MASK = STYLE_MASK | VDUBuffer.UNDERLINE
+    | VDUBuffer.INVISIBLE;
+
   /** User defineable cursor colors */
   private Color cursorColorFG = null;
   private Color cursorColorBG = null;
@@ -243,6 +288,7 @@ public class SwingTerminal extends Component
    */
   public void setColorSet(Color[] colorset) {
     System.arraycopy(colorset, 0, color, 0, 10);
+    styleColors = null;
     buffer.update[0] = true;
     redraw();
   }
@@ -261,6 +307,7 @@ public class SwingTerminal extends Component
    */
   public void setFont(Font font) {
     super.setFont(normalFont = font);
+    boldFont = null;
     fm = getFontMetrics(font);
     if (fm != null) {
       charWidth = fm.charWidth('@');
@@ -271,6 +318,66 @@ public class SwingTerminal extends Component
     redraw();
   }
 
+  public void setForeground(Color fg) {
+    super.setForeground(fg);
+    styleColors = null;
+  }
+
+  public void setBackground(Color bg) {
+    super.setBackground(bg);
+    styleColors = null;
+  }
+
+  /**
+   * Resolve the foreground and background color of a style. The colors
+   * are kept until the color set or the default colors change.
+   * @param styles the style table to fill in
+   * @param style the attributes masked with STYLE_MASK
+   */
+  private void resolveStyle(Color styles[], int style) {
+    Color fg = darken(getForeground());
+    Color bg = darken(getBackground());
+
+    if ((style & VDUBuffer.COLOR_FG) != 0)
+      fg = darken(color[((style & VDUBuffer.COLOR_FG) >> VDUBuffer.COLOR_FG_SHIFT) - 1]);
+    if ((style & VDUBuffer.COLOR_BG) != 0)
+      bg = darken(darken(color[((style & VDUBuffer.COLOR_BG) >> VDUBuffer.COLOR_BG_SHIFT) - 1]));
+
+    if ((style & VDUBuffer.BOLD) != 0) {
+      if (null != color[COLOR_BOLD]) {
+        fg = color[COLOR_BOLD];
+      }
+      /*
+      if(fg.equals(Color.black)) {
+        fg = Color.gray;
+      } else {
+        fg = brighten(fg);
+        // bg = bg.brighter(); -- make some programs ugly
+      }
+      */
+    }
+
+    if ((style & VDUBuffer.LOW) != 0) {
+      fg = darken(fg);
+    }
+    if ((style & VDUBuffer.INVERT) != 0) {
+      if (null == color[COLOR_INVERT]) {
+        Color swapc = bg;
+        bg = fg;
+        fg = swapc;
+      } else {
+        if (null == color[COLOR_BOLD]) {
+          fg = bg;
+        } else {
+          fg = color[COLOR_BOLD];
+        }
+        bg = color[COLOR_INVERT];
+      }
+    }
+    styles[2 * style] = fg;
+    styles[2 * style + 1] = bg;
+  }
+
   /**
    * Set the strategy when window is resized.
    * RESIZE_FONT is default.
@@ -314,12 +421,51 @@ public class SwingTerminal extends Component
   }
 
   /**
-   * Redraw marked lines.
+   * Set the maximum number of frames per second. Calls to redraw() are
+   * collected and the marked lines are rendered at most once per frame
+   * on the event dispatch thread. A value of zero or less renders the
+   * lines immediately on every call of redraw().
+   * @param fps maximum frames per second
+   */
+  public void setMaxFps(int fps) {
+    frameTime = fps > 0 ? 1000 / fps : 0;
+  }
+
+  /**
+   * Redraw marked lines. The lines are rendered with the next frame,
+   * so this method returns without waiting for the display.
+   * @see #setMaxFps
    */
   public void redraw() {
-    if (backingStore != null) {
-      redraw(backingStore.getGraphics());
-      repaint();
+    if (frameTime <= 0) {
+      if (backingStore != null) {
+        redraw(backingStore.getGraphics());
+        repaint();
+      }
+      return;
+    }
+
+    long delay;
+    synchronized (this) {
+      if (framePending) return;
+      framePending = true;
+      delay = lastFrame + frameTime - System.currentTimeMillis();
+    }
+    if (delay <= 0)
+      SwingUtilities.invokeLater(renderFrame);
+    else {
+      synchronized (this) {
+        if (frameTimer == null) {
+          frameTimer = new Timer(frameTime, new ActionListener() {
+            public void actionPerformed(ActionEvent evt) {
+              renderFrame.run();
+            }
+          });
+          frameTimer.setRepeats(false);
+        }
+        frameTimer.setInitialDelay((int) delay);
+        frameTimer.restart();
+      }
     }
   }
 
@@ -328,17 +474,169 @@ public class SwingTerminal extends Component
     scrollBar.setValues(buffer.windowBase, buffer.height, 0, buffer.bufSize);
   }
 
+  /**
+   * Remember scrolled lines, they are moved in the backing store with the
+   * next frame instead of being drawn again.
+   * @param top first line of the scrolled region
+   * @param bottom last line of the scrolled region
+   * @param n number of lines scrolled up, negative if scrolled down
+   */
+  public synchronized void scrollLines(int top, int bottom, int n) {
+    // a selection is highlighted by absolute line, draw everything
+    if (scrollCount == scrolls.length ||
+      selectBegin.x != selectEnd.x || selectBegin.y != selectEnd.y) {
+      buffer.update[0] = true;
+      return;
+    }
+    scrolls[scrollCount++] = top;
+    scrolls[scrollCount++] = bottom;
+    scrolls[scrollCount++] = n;
+  }
+
+  /**
+   * A copy of what a frame draws, taken while the buffer is locked so the
+   * emulation can go on while the frame is drawn.
+   */
+  private static class Frame {
+    int rows[][] = new int[0][];           /* cells of the changed lines */
+    int widths[] = new int[0];           /* number of cells in each line */
+    boolean dirty[] = new boolean[0];        /* lines that have changed */
+    int height, windowBase;
+    int bufWidth, bufHeight;
+    int scrolls[] = new int[0];          /* scrolls to do in the store */
+    int scrollCount;
+    boolean cursor;                             /* draw the cursor */
+    int cursorX, cursorLine;
+  }
+
+  private Frame spareFrame;                /* reused for the next frame */
+
+  /**
+   * Copy the lines to be drawn and the scrolls to be done in the backing
+   * store. The buffer must be locked.
+   */
+  private void takeFrame(Frame f) {
+    // the emulation may resize the buffer, so use what the flags cover
+    boolean update[] = buffer.update;
+    int height = Math.min(buffer.height, update.length - 1);
+
+    if (!printing)
+      takeScrolls(f, update);
+
+    if (f.rows.length < height) {
+      f.rows = new int[height][];
+      f.widths = new int[height];
+      f.dirty = new boolean[height];
+    }
+    f.height = height;
+    f.windowBase = buffer.windowBase;
+    f.bufWidth = buffer.width;
+    f.bufHeight = buffer.height;
+    for (int l = 0; l < height; l++) {
+      f.dirty[l] = update[0] || update[l + 1];
+      if (!f.dirty[l]) continue;
+      update[l + 1] = false;
+      int cells[] = buffer.getCells(buffer.windowBase + l);
+      int width = Math.min(buffer.width, cells.length);
+      if (f.rows[l] == null || f.rows[l].length < width)
+        f.rows[l] = new int[width];
+      System.arraycopy(cells, 0, f.rows[l], 0, width);
+      f.widths[l] = width;
+    }
+
+    f.cursor = buffer.showcursor &&
+      buffer.screenBase + buffer.cursorY >= buffer.windowBase &&
+      buffer.screenBase + buffer.cursorY < buffer.windowBase + buffer.height;
+    f.cursorX = buffer.cursorX;
+    f.cursorLine = buffer.cursorY + buffer.screenBase - buffer.windowBase;
+    if (!printing)
+      cursorRow = f.cursor ? f.cursorLine : -1;
+    update[0] = false;
+  }
+
+  /**
+   * Take the lines scrolled since the last frame, they are moved in the
+   * backing store instead of being drawn again.
+   */
+  private synchronized void takeScrolls(Frame f, boolean update[]) {
+    f.scrollCount = 0;
+    if (f.scrolls.length < scrollCount)
+      f.scrolls = new int[scrolls.length];
+    for (int i = 0; i < scrollCount && !update[0]; i += 3) {
+      int top = scrolls[i], bottom = scrolls[i + 1], n = scrolls[i + 2];
+      f.scrolls[f.scrollCount++] = top;
+      f.scrolls[f.scrollCount++] = bottom;
+      f.scrolls[f.scrollCount++] = n;
+      // the cursor moved with the lines and must be removed there
+      if (cursorRow >= top && cursorRow <= bottom) {
+        cursorRow -= n;
+        if (cursorRow >= top && cursorRow <= bottom && cursorRow < update.length - 1)
+          update[cursorRow + 1] = true;
+        else
+          cursorRow = -1;
+      }
+    }
+    // a full redraw draws over everything anyway
+    if (update[0]) f.scrollCount = 0;
+    scrollCount = 0;
+  }
+
+  /**
+   * Move the lines in the backing store that have been scrolled since
+   * the last frame.
+   */
+  private void scrollBackingStore(Graphics g, Frame f,
+                                  int xoffset, int yoffset) {
+    for (int i = 0; i < f.scrollCount; i += 3) {
+      int top = f.scrolls[i], bottom = f.scrolls[i + 1], n = f.scrolls[i + 2];
+      int d = n < 0 ? -n : n;
+      g.copyArea(xoffset, (n > 0 ? top + d : top) * charHeight + yoffset,
+                 f.bufWidth * charWidth, (bottom - top + 1 - d) * charHeight,
+                 0, -n * charHeight);
+    }
+  }
+
   protected void redraw(Graphics g) {
     if (debug > 0) System.err.println("redraw()");
 
-    int xoffset = (super.getSize().width - buffer.width * charWidth) / 2;
-    int yoffset = (super.getSize().height - buffer.height * charHeight) / 2;
+    Frame f;
+    synchronized (this) {
+      f = spareFrame != null ? spareFrame : new Frame();
+      spareFrame = null;
+    }
+    // the emulation only waits while the changed lines are copied
+    synchronized (buffer) {
+      takeFrame(f);
+    }
+    drawFrame(g, f);
+    synchronized (this) {
+      spareFrame = f;
+    }
+  }
 
-    int selectStartLine = selectBegin.y - buffer.windowBase;
-    int selectEndLine = selectEnd.y - buffer.windowBase;
+  private void drawFrame(Graphics g, Frame f) {
+    int xoffset = (super.getSize().width - f.bufWidth * charWidth) / 2;
+    int yoffset = (super.getSize().height - f.bufHeight * charHeight) / 2;
 
-    Color fg = darken(color[COLOR_FG_STD]);
-    Color bg = darken(color[COLOR_BG_STD]);
+    int selectStartLine = selectBegin.y - f.windowBase;
+    int selectEndLine = selectEnd.y - f.windowBase;
+
+    Color styles[] = styleColors;
+    if (styles == null) {
+      styleColors = styles = new Color[2 * (STYLE_MASK + 1)];
+      resolveStyle(styles, 0);
+    }
+    Color fg = styles[0];
+    Color bg = styles[1];
+
+    GlyphAtlas atlas = null;
+    if (useGlyphAtlas && !printing) {
+      if (glyphAtlas == null ||
+        !glyphAtlas.matches(normalFont, charWidth, charHeight, styles))
+        glyphAtlas = new GlyphAtlas(normalFont, charWidth, charHeight,
+                                    charDescent, styles, sf);
+      atlas = glyphAtlas;
+    }
 
     g.setFont(normalFont);
 
@@ -361,65 +659,50 @@ public class SwingTerminal extends Component
      }
      */
 
-    for (int l = 0; l < buffer.height; l++) {
-      if (!buffer.update[0] && !buffer.update[l + 1]) continue;
-      buffer.update[l + 1] = false;
+    if (!printing)
+      scrollBackingStore(g, f, xoffset, yoffset);
+
+    for (int l = 0; l < f.height; l++) {
+      if (!f.dirty[l]) continue;
       if (debug > 2) System.err.println("redraw(): line " + l);
-      for (int c = 0; c < buffer.width; c++) {
+      int cells[] = f.rows[l];
+      int width = f.widths[l];
+      if (runChars.length < width) runChars = new char[width];
+      for (int c = 0; c < width; c++) {
         int addr = 0;
-        int currAttr = buffer.charAttributes[buffer.windowBase + l][c];
-
-        fg = darken(getForeground());
-        bg = darken(getBackground());
+        char currChar = VDUBuffer.cellChar(cells[c]);
+        // control characters are shown as normal blanks
+        int currAttr = currChar < ' ' ? 0 : VDUBuffer.cellAttributes(cells[c]);
 
-        if ((currAttr & buffer.COLOR_FG) != 0)
-          fg = darken(color[((currAttr & buffer.COLOR_FG) >> buffer.COLOR_FG_SHIFT) - 1]);
-        if ((currAttr & buffer.COLOR_BG) != 0)
-          bg = darken(darken(color[((currAttr & buffer.COLOR_BG) >> buffer.COLOR_BG_SHIFT) - 1]));
+        int style = currAttr & STYLE_MASK;
+        if (styles[2 * style] == null) resolveStyle(styles, style);
+        fg = styles[2 * style];
+        bg = styles[2 * style + 1];
 
         if ((currAttr & VDUBuffer.BOLD) != 0) {
-          g.setFont(new Font(normalFont.getName(), Font.BOLD, normalFont.getSize()));
+          Font bold = boldFont;
+          if (bold == null)
+            boldFont = bold = new Font(normalFont.getName(), Font.BOLD, normalFont.getSize());
           // does not work with IE6: g.setFont(normalFont.deriveFont(Font.BOLD));
-          if (null != color[COLOR_BOLD]) {
-            fg = color[COLOR_BOLD];
-          }
-          /*
-          if(fg.equals(Color.black)) {
-            fg = Color.gray;
-          } else {
-            fg = brighten(fg);
-            // bg = bg.brighter(); -- make some programs ugly
-          }
-          */
+          g.setFont(bold);
         } else {
           g.setFont(normalFont);
         }
 
-        if ((currAttr & VDUBuffer.LOW) != 0) {
-          fg = darken(fg);
-        }
-        if ((currAttr & VDUBuffer.INVERT) != 0) {
-          if (null == color[COLOR_INVERT]) {
-            Color swapc = bg;
-            bg = fg;
-            fg = swapc;
-          } else {
-            if (null == color[COLOR_BOLD]) {
-              fg = bg;
-            } else {
-              fg = color[COLOR_BOLD];
-            }
-            bg = color[COLOR_INVERT];
-          }
+        if (atlas != null) {
+          atlas.drawGlyph(g, currChar < ' ' ? ' ' : currChar,
+                          currAttr & GLYPH_MASK, fg, bg, g.getFont(),
+                          c * charWidth + xoffset, l * charHeight + yoffset);
+          continue;
         }
 
-        if (sf.inSoftFont(buffer.charArray[buffer.windowBase + l][c])) {
+        if (sf.inSoftFont(currChar)) {
           g.setColor(bg);
           g.fillRect(c * charWidth + xoffset, l * charHeight + yoffset,
                      charWidth, charHeight);
           g.setColor(fg);
           if ((currAttr & VDUBuffer.INVISIBLE) == 0)
-            sf.drawChar(g, buffer.charArray[buffer.windowBase + l][c], xoffset + c * charWidth,
+            sf.drawChar(g, currChar, xoffset + c * charWidth,
                         l * charHeight + yoffset, charWidth, charHeight);
           if ((currAttr & VDUBuffer.UNDERLINE) != 0)
             g.drawLine(c * charWidth + xoffset,
@@ -430,16 +713,15 @@ public class SwingTerminal extends Component
         }
 
         // determine the maximum of characters we can print in one go
-        while ((c + addr < buffer.width) &&
-          ((buffer.charArray[buffer.windowBase + l][c + addr] < ' ') ||
-          (buffer.charAttributes[buffer.windowBase + l][c + addr] == currAttr)) &&
-          !sf.inSoftFont(buffer.charArray[buffer.windowBase + l][c + addr])) {
-          if (buffer.charArray[buffer.windowBase + l][c + addr] < ' ') {
-            buffer.charArray[buffer.windowBase + l][c + addr] = ' ';
-            buffer.charAttributes[buffer.windowBase + l][c + addr] = 0;
-            continue;
-          }
-          addr++;
+        while (c + addr < width) {
+          char ch = VDUBuffer.cellChar(cells[c + addr]);
+          if (ch < ' ') {
+            if (currAttr != 0) break;
+            ch = ' ';
+          } else if (VDUBuffer.cellAttributes(cells[c + addr]) != currAttr ||
+            sf.inSoftFont(ch))
+            break;
+          runChars[addr++] = ch;
         }
 
         // clear the part of the screen we want to change (fill rectangle)
@@ -451,7 +733,7 @@ public class SwingTerminal extends Component
 
         // draw the characters, if not invisible.
         if ((currAttr & VDUBuffer.INVISIBLE) == 0)
-          g.drawChars(buffer.charArray[buffer.windowBase + l], c, addr,
+          g.drawChars(runChars, 0, addr,
                       c * charWidth + xoffset,
                       (l + 1) * charHeight - charDescent + yoffset);
 
@@ -471,7 +753,7 @@ public class SwingTerminal extends Component
         int selectEndColumn =
           (l == selectEndLine ?
           (l == selectStartLine ? selectEnd.x - selectStartColumn :
-          selectEnd.x) : buffer.width);
+          selectEnd.x) : width);
         if (selectStartColumn != selectEndColumn) {
           if (debug > 0)
             System.err.println("select(" + selectStartColumn + "-"
@@ -488,14 +770,11 @@ public class SwingTerminal extends Component
     }
 
     // draw cursor
-    if (buffer.showcursor && (
-      buffer.screenBase + buffer.cursorY >= buffer.windowBase &&
-      buffer.screenBase + buffer.cursorY < buffer.windowBase + buffer.height)
-    ) {
+    if (f.cursor) {
       g.setColor(cursorColorFG);
       g.setXORMode(cursorColorBG);
-      g.fillRect(buffer.cursorX * charWidth + xoffset,
-                 (buffer.cursorY + buffer.screenBase - buffer.windowBase) * charHeight + yoffset,
+      g.fillRect(f.cursorX * charWidth + xoffset,
+                 f.cursorLine * charHeight + yoffset,
                  charWidth, charHeight);
       g.setPaintMode();
       g.setColor(color[COLOR_FG_STD]);
@@ -508,11 +787,10 @@ public class SwingTerminal extends Component
       yoffset--;
       for (int i = insets.top - 1; i >= 0; i--)
         g.draw3DRect(xoffset - i, yoffset - i,
-                     charWidth * buffer.width + 1 + i * 2,
-                     charHeight * buffer.height + 1 + i * 2,
+                     charWidth * f.bufWidth + 1 + i * 2,
+                     charHeight * f.bufHeight + 1 + i * 2,
                      raised);
     }
-    buffer.update[0] = false;
   }
 
   /**
@@ -523,7 +801,7 @@ public class SwingTerminal extends Component
       Dimension size = super.getSize();
       backingStore = createImage(size.width, size.height);
       buffer.update[0] = true;
-      redraw();
+      redraw(backingStore.getGraphics());
     }
 
     if (debug > 1)
@@ -542,6 +820,20 @@ public class SwingTerminal extends Component
   }
 */
 
+  /**
+   * Draw character cells from a cache of rendered cells instead of
+   * drawing the text each time. This is much faster for full screen
+   * updates, especially with antialiased fonts, but needs some memory
+   * for the cache.
+   * @param use true to use the cache, the default is false
+   */
+  public void setGlyphAtlas(boolean use) {
+    useGlyphAtlas = use;
+    if (!use) glyphAtlas = null;
+    buffer.update[0] = true;
+    redraw();
+  }
+
   /**
    * Set default for printing black&amp;white or colorized as displayed on
    * screen.
@@ -572,12 +864,16 @@ public class SwingTerminal extends Component
                           null,
                           null,
       };
+      styleColors = null;
     }
 
+    printing = true;
     redraw(g);
+    printing = false;
 
     if (!colorPrinting) {
       color = colorSave;
+      styleColors = null;
       setForeground(fg);
       setBackground(bg);
     }
@@ -850,18 +1146,18 @@ public class SwingTerminal extends Component
       // fix begin.x and begin.y, they can get over the borders
       if (selectBegin.x < 0) selectBegin.x = 0;
       if (selectBegin.y < 0) selectBegin.y = 0;
-      if (selectBegin.y >= buffer.charArray.length)
-        selectBegin.y = buffer.charArray.length - 1;
-      if (selectBegin.x > buffer.charArray[0].length)
-        selectBegin.x = buffer.charArray[0].length;
+      if (selectBegin.y >= buffer.getBufferSize())
+        selectBegin.y = buffer.getBufferSize() - 1;
+      if (selectBegin.x > buffer.width)
+        selectBegin.x = buffer.width;
 
       // fix end.x and end.y, they can also get over the borders
       if (selectEnd.x < 0) selectEnd.x = 0;
       if (selectEnd.y < 0) selectEnd.y = 0;
-      if (selectEnd.y >= buffer.charArray.length)
-        selectEnd.y = buffer.charArray.length - 1;
-      if (selectEnd.x > buffer.charArray[0].length)
-        selectEnd.x = buffer.charArray[0].length;
+      if (selectEnd.y >= buffer.getBufferSize())
+        selectEnd.y = buffer.getBufferSize() - 1;
+      if (selectEnd.x > buffer.width)
+        selectEnd.x = buffer.width;
 
       // NOTE: Selection includes invisible text as spaces!
       // (also leaves invisible non-whitespace selection ending as spaces)
@@ -872,29 +1168,35 @@ public class SwingTerminal extends Component
 
       if (selectBegin.y > selectEnd.y) System.err.println("selectBegin.y " + selectBegin.y + "larger than selectEnd.y " + selectEnd.y + "!");
 
-      for (int l = selectBegin.y; l <= selectEnd.y; l++) {
-	/* reinitialize buffer every loop */
-        StringBuffer selectionBuf = new StringBuffer(buffer.charArray[0].length);
-        int start = (l == selectBegin.y ? selectBegin.x : 0);
-        int end = (l == selectEnd.y ? selectEnd.x : buffer.charArray[l].length);
-
-        boolean newlineFound = false;
-        char ch = ' ';
-        for (int i = start; i < end; i++) {
-          if ((buffer.charAttributes[l][i] & VDUBuffer.INVISIBLE) != 0)
-            ch = ' ';
-          else
-            ch = buffer.charArray[l][i];
-          if (ch == '\n')
-            newlineFound = true;
-          selectionBuf.append(ch);
+      // the terminal may change the buffer meanwhile, like in renderFrame
+      synchronized (buffer) {
+        for (int l = selectBegin.y; l <= selectEnd.y; l++) {
+	  /* reinitialize buffer every loop */
+          StringBuffer selectionBuf = new StringBuffer(buffer.width);
+          int cells[] = buffer.getCells(l);
+          int start = (l == selectBegin.y ? selectBegin.x : 0);
+          int end = (l == selectEnd.y ? selectEnd.x : cells.length);
+
+          boolean newlineFound = false;
+          char ch = ' ';
+          for (int i = start; i < end; i++) {
+            if ((VDUBuffer.cellAttributes(cells[i]) & VDUBuffer.INVISIBLE) != 0)
+              ch = ' ';
+            else
+              ch = VDUBuffer.cellChar(cells[i]);
+            if (ch == '\n')
+              newlineFound = true;
+            else if (ch < ' ')
+              ch = ' ';
+            selectionBuf.append(ch);
+          }
+          if (!newlineFound)
+            selectionBuf.append('\n');
+          // Trim all spaces from end of line, like xterm does.
+          selection += ("-" + (selectionBuf.toString())).trim().substring(1);
+          if (end == cells.length)
+            selection += "\n";
         }
-        if (!newlineFound)
-          selectionBuf.append('\n');
-        // Trim all spaces from end of line, like xterm does.
-        selection += ("-" + (selectionBuf.toString())).trim().substring(1);
-        if (end == buffer.charArray[l].length)
-          selection += "\n";
       }
     }
   }
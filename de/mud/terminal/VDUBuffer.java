@@ -25,6 +25,8 @@
 
 package de.mud.terminal;
 
+import java.util.Arrays;
+
 /**
  * Implementation of a Video Display Unit (VDU) buffer. This class contains
  * all methods to manipulate the buffer that stores characters and their
@@ -43,8 +45,9 @@ public class VDUBuffer {
 
   public int height, width;                          /* rows and columns */
   public boolean[] update;        /* contains the lines that need update */
-  public char[][] charArray;                  /* contains the characters */
-  public int[][] charAttributes;             /* contains character attrs */
+  protected int[][] cells;    /* ring buffer of characters and their attrs */
+  protected char[][] frozen;   /* ring buffer of compressed scrollback lines */
+  protected int bufStart;          /* ring buffer slot of the first line */
   public int bufSize;
   public int maxBufSize;                                 /* buffer sizes */
   public int screenBase;                      /* the actual screen start */
@@ -54,6 +57,12 @@ public class VDUBuffer {
   private int topMargin;                               /* top scroll margin */
   private int bottomMargin;                         /* bottom scroll margin */
 
+  /** shared compressed form of all blank lines */
+  private final static char[] BLANK_LINE = new char[]{0};
+  private char[] lastFrozen;          /* last line compressed, for sharing */
+  private int[][] thawed;               /* decoded compressed lines cache */
+  private char[][] thawedFrom;     /* compressed lines held in that cache */
+
   // cursor variables
   protected boolean showcursor = true;
   protected int cursorX, cursorY;
@@ -87,6 +96,11 @@ public class VDUBuffer {
   /** background color mask */
   public final static int COLOR_BG = 0x1e00;
 
+  /** how much to left shift the attributes of a cell */
+  public final static int CELL_ATTR_SHIFT = 16;
+  /** character mask of a cell */
+  public final static int CELL_CHAR = 0xffff;
+
   /**
    * Create a new video display buffer with the passed width and height in
    * characters.
@@ -142,8 +156,7 @@ public class VDUBuffer {
   public void putChar(int c, int l, char ch, int attributes) {
     c = checkBounds(c, 0, width - 1);
     l = checkBounds(l, 0, height - 1);
-    charArray[screenBase + l][c] = ch;
-    charAttributes[screenBase + l][c] = attributes;
+    cells[slot(screenBase + l)][c] = cell(ch, attributes);
     markLine(l, 1);
   }
 
@@ -156,7 +169,7 @@ public class VDUBuffer {
   public char getChar(int c, int l) {
     c = checkBounds(c, 0, width - 1);
     l = checkBounds(l, 0, height - 1);
-    return charArray[screenBase + l][c];
+    return cellChar(cells[slot(screenBase + l)][c]);
   }
 
   /**
@@ -168,7 +181,7 @@ public class VDUBuffer {
   public int getAttributes(int c, int l) {
     c = checkBounds(c, 0, width - 1);
     l = checkBounds(l, 0, height - 1);
-    return charAttributes[screenBase + l][c];
+    return cellAttributes(cells[slot(screenBase + l)][c]);
   }
 
   /**
@@ -192,10 +205,8 @@ public class VDUBuffer {
   public void insertChar(int c, int l, char ch, int attributes) {
     c = checkBounds(c, 0, width - 1);
     l = checkBounds(l, 0, height - 1);
-    System.arraycopy(charArray[screenBase + l], c,
-                     charArray[screenBase + l], c + 1, width - c - 1);
-    System.arraycopy(charAttributes[screenBase + l], c,
-                     charAttributes[screenBase + l], c + 1, width - c - 1);
+    int row[] = cells[slot(screenBase + l)];
+    System.arraycopy(row, c, row, c + 1, width - c - 1);
     putChar(c, l, ch, attributes);
   }
 
@@ -213,10 +224,8 @@ public class VDUBuffer {
     c = checkBounds(c, 0, width - 1);
     l = checkBounds(l, 0, height - 1);
     if (c < width - 1) {
-      System.arraycopy(charArray[screenBase + l], c + 1,
-                       charArray[screenBase + l], c, width - c - 1);
-      System.arraycopy(charAttributes[screenBase + l], c + 1,
-                       charAttributes[screenBase + l], c, width - c - 1);
+      int row[] = cells[slot(screenBase + l)];
+      System.arraycopy(row, c + 1, row, c, width - c - 1);
     }
     putChar(width - 1, l, (char) 0);
   }
@@ -266,6 +275,30 @@ public class VDUBuffer {
       putChar(c + i, l, s.charAt(i), attributes);
   }
 
+  /**
+   * Put characters from an array at a specific position giving all
+   * characters the same attributes. Characters that do not fit into the
+   * line are dropped. You need to call redraw() to update the screen.
+   * @param c x-coordinate (column)
+   * @param l y-coordinate (line)
+   * @param b the array holding the characters
+   * @param off offset of the first character in the array
+   * @param len number of characters
+   * @param attributes character attributes
+   * @see #putString
+   * @see #redraw
+   */
+  public void putChars(int c, int l, char b[], int off, int len, int attributes) {
+    c = checkBounds(c, 0, width - 1);
+    l = checkBounds(l, 0, height - 1);
+    if (len > width - c) len = width - c;
+    int row[] = cells[slot(screenBase + l)];
+    int attr = attributes << CELL_ATTR_SHIFT;
+    for (int i = 0; i < len; i++)
+      row[c + i] = attr | b[off + i];
+    markLine(l, 1);
+  }
+
   /**
    * Insert a blank line at a specific position.
    * The current line and all previous lines are scrolled one line up. The
@@ -320,11 +353,6 @@ public class VDUBuffer {
   public synchronized void insertLine(int l, int n, boolean scrollDown) {
     l = checkBounds(l, 0, height - 1);
 
-    char cbuf[][] = null;
-    int abuf[][] = null;
-    int offset = 0;
-    int oldBase = screenBase;
-
     if (l > bottomMargin) /* We do not scroll below bottom margin (below the scrolling region). */
       return;
     int top = (l < topMargin ?
@@ -340,126 +368,46 @@ public class VDUBuffer {
 
     if (scrollDown) {
       if (n > (bottom - top)) n = (bottom - top);
-      cbuf = new char[bottom - l - (n - 1)][width];
-      abuf = new int[bottom - l - (n - 1)][width];
-
-      System.arraycopy(charArray, oldBase + l, cbuf, 0, bottom - l - (n - 1));
-      System.arraycopy(charAttributes, oldBase + l,
-                       abuf, 0, bottom - l - (n - 1));
-      System.arraycopy(cbuf, 0, charArray, oldBase + l + n,
-                       bottom - l - (n - 1));
-      System.arraycopy(abuf, 0, charAttributes, oldBase + l + n,
-                       bottom - l - (n - 1));
-      cbuf = charArray;
-      abuf = charAttributes;
+      if (n > bottom - l + 1) n = bottom - l + 1;
+      // the lines pushed out below the bottom come back as blank lines at l
+      rotateLines(screenBase + l, bottom - l + 1, n);
+      clearLines(screenBase + l, n);
     } else {
-      try {
-        if (n > (bottom - top) + 1) n = (bottom - top) + 1;
-        if (bufSize < maxBufSize) {
-          if (bufSize + n > maxBufSize) {
-            offset = n - (maxBufSize - bufSize);
-            scrollMarker += offset;
-            bufSize = maxBufSize;
-            screenBase = maxBufSize - height - 1;
-            windowBase = screenBase;
-          } else {
-            scrollMarker += n;
-            screenBase += n;
-            windowBase += n;
-            bufSize += n;
-          }
-
-          cbuf = new char[bufSize][width];
-          abuf = new int[bufSize][width];
-        } else {
-          offset = n;
-          cbuf = charArray;
-          abuf = charAttributes;
-        }
-        // copy anything from the top of the buffer (+offset) to the new top
-        // up to the screenBase.
-        if (oldBase > 0) {
-          System.arraycopy(charArray, offset,
-                           cbuf, 0,
-                           oldBase - offset);
-          System.arraycopy(charAttributes, offset,
-                           abuf, 0,
-                           oldBase - offset);
-        }
-        // copy anything from the top of the screen (screenBase) up to the
-        // topMargin to the new screen
-        if (top > 0) {
-          System.arraycopy(charArray, oldBase,
-                           cbuf, screenBase,
-                           top);
-          System.arraycopy(charAttributes, oldBase,
-                           abuf, screenBase,
-                           top);
-        }
-        // copy anything from the topMargin up to the amount of lines inserted
-        // to the gap left over between scrollback buffer and screenBase
-        if (oldBase > 0) {
-          System.arraycopy(charArray, oldBase + top,
-                           cbuf, oldBase - offset,
-                           n);
-          System.arraycopy(charAttributes, oldBase + top,
-                           abuf, oldBase - offset,
-                           n);
-        }
-        // copy anything from topMargin + n up to the line linserted to the
-        // topMargin
-        System.arraycopy(charArray, oldBase + top + n,
-                         cbuf, screenBase + top,
-                         l - top - (n - 1));
-        System.arraycopy(charAttributes, oldBase + top + n,
-                         abuf, screenBase + top,
-                         l - top - (n - 1));
-        //
-        // copy the all lines next to the inserted to the new buffer
-        if (l < height - 1) {
-          System.arraycopy(charArray, oldBase + l + 1,
-                           cbuf, screenBase + l + 1,
-                           (height - 1) - l);
-          System.arraycopy(charAttributes, oldBase + l + 1,
-                           abuf, screenBase + l + 1,
-                           (height - 1) - l);
-        }
-      } catch (ArrayIndexOutOfBoundsException e) {
-        // this should not happen anymore, but I will leave the code
-        // here in case something happens anyway. That code above is
-        // so complex I always have a hard time understanding what
-        // I did, even though there are comments
-        System.err.println("*** Error while scrolling up:");
-        System.err.println("--- BEGIN STACK TRACE ---");
-        e.printStackTrace();
-        System.err.println("--- END STACK TRACE ---");
-        System.err.println("bufSize=" + bufSize + ", maxBufSize=" + maxBufSize);
-        System.err.println("top=" + top + ", bottom=" + bottom);
-        System.err.println("n=" + n + ", l=" + l);
-        System.err.println("screenBase=" + screenBase + ", windowBase=" + windowBase);
-        System.err.println("oldBase=" + oldBase);
-        System.err.println("size.width=" + width + ", size.height=" + height);
-        System.err.println("abuf.length=" + abuf.length + ", cbuf.length=" + cbuf.length);
-        System.err.println("*** done dumping debug information");
-      }
+      if (n > (l - top) + 1) n = (l - top) + 1;
+      // move the lines leaving the scroll region to the top of the screen,
+      // so they end up at the end of the scrollback buffer below
+      rotateLines(screenBase, top + n, n);
+
+      // append n lines to the buffer, either by growing it or by reusing
+      // the oldest lines of the ring buffer
+      int grow = maxBufSize - bufSize < n ? maxBufSize - bufSize : n;
+      int drop = n - grow;
+      // same bookkeeping as before the ring buffer: a full buffer only
+      // moves the marker back by n below
+      if (bufSize < maxBufSize)
+        scrollMarker += grow < n ? drop : n;
+      bufSize += grow;
+      screenBase += grow;
+      windowBase += grow;
+      bufStart = (bufStart + drop) % cells.length;
+      // compress the lines that went into the scrollback buffer and use
+      // their storage for the new lines
+      for (int i = 0; i < n; i++)
+        if (screenBase - n + i >= 0)
+          freezeLine(screenBase - n + i, screenBase + height - n + i);
+      clearLines(screenBase + height - n, n);
+
+      // move the new blank lines up to the line inserted
+      rotateLines(screenBase + l - (n - 1), height - l + (n - 1), n);
     }
 
     // this is a little helper to mark the scrolling
     scrollMarker -= n;
 
-
-    for (int i = 0; i < n; i++) {
-      cbuf[(screenBase + l) + (scrollDown ? i : -i)] = new char[width];
-      abuf[(screenBase + l) + (scrollDown ? i : -i)] = new int[width];
-    }
-
-    charArray = cbuf;
-    charAttributes = abuf;
-
     if (scrollDown)
-      markLine(l, bottom - l + 1);
+      markScroll(l, bottom, -n);
     else
-      markLine(top, l - top + 1);
+      markScroll(top, l, n);
 
     display.updateScrollBar();
   }
@@ -471,18 +419,43 @@ public class VDUBuffer {
    * @param l the y-coordinate to insert the line
    * @see #deleteLine
    */
-  public void deleteLine(int l) {
+  public synchronized void deleteLine(int l) {
     l = checkBounds(l, 0, height - 1);
 
     int bottom = (l > bottomMargin ? height - 1:
             (l < topMargin?topMargin:bottomMargin + 1));
-    System.arraycopy(charArray, screenBase + l + 1,
-                     charArray, screenBase + l, bottom - l - 1);
-    System.arraycopy(charAttributes, screenBase + l + 1,
-                     charAttributes, screenBase + l, bottom - l - 1);
-    charArray[screenBase + bottom - 1] = new char[width];
-    charAttributes[screenBase + bottom - 1] = new int[width];
-    markLine(l, bottom - l);
+    if (bottom - l > 0) {
+      // rotate the deleted line down to the bottom and reuse it
+      rotateLines(screenBase + l, bottom - l, bottom - l - 1);
+      clearLines(screenBase + bottom - 1, 1);
+      markScroll(l, bottom - 1, 1);
+    }
+  }
+
+  /**
+   * Mark the lines of a scrolled region for update. If the screen is
+   * displayed the update marks are moved with the lines and the display
+   * is asked to move what it shows, so only the new lines are drawn.
+   * @param top first line of the region
+   * @param bottom last line of the region
+   * @param n number of lines scrolled up, negative if scrolled down
+   * @see VDUDisplay#scrollLines
+   */
+  private void markScroll(int top, int bottom, int n) {
+    int lines = bottom - top + 1, d = n < 0 ? -n : n;
+    if (display == null || update[0] || windowBase != screenBase
+        || d >= lines) {
+      markLine(top, lines);
+      return;
+    }
+    if (n > 0) {
+      System.arraycopy(update, top + 1 + d, update, top + 1, lines - d);
+      markLine(bottom - d + 1, d);
+    } else {
+      System.arraycopy(update, top + 1, update, top + 1 + d, lines - d);
+      markLine(top, d);
+    }
+    display.scrollLines(top, bottom, n);
   }
 
   /**
@@ -501,14 +474,9 @@ public class VDUBuffer {
     c = checkBounds(c, 0, width - 1);
     l = checkBounds(l, 0, height - 1);
 
-    char cbuf[] = new char[w];
-    int abuf[] = new int[w];
-
-    for (int i = 0; i < w; i++) abuf[i] = curAttr;
-    for (int i = 0; i < h && l + i < height; i++) {
-      System.arraycopy(cbuf, 0, charArray[screenBase + l + i], c, w);
-      System.arraycopy(abuf, 0, charAttributes[screenBase + l + i], c, w);
-    }
+    int blank = cell((char) 0, curAttr);
+    for (int i = 0; i < h && l + i < height; i++)
+      Arrays.fill(cells[slot(screenBase + l + i)], c, c + w, blank);
     markLine(l, h);
   }
 
@@ -527,13 +495,8 @@ public class VDUBuffer {
     c = checkBounds(c, 0, width - 1);
     l = checkBounds(l, 0, height - 1);
 
-    char cbuf[] = new char[w];
-    int abuf[] = new int[w];
-
-    for (int i = 0; i < h && l + i < height; i++) {
-      System.arraycopy(cbuf, 0, charArray[screenBase + l + i], c, w);
-      System.arraycopy(abuf, 0, charAttributes[screenBase + l + i], c, w);
-    }
+    for (int i = 0; i < h && l + i < height; i++)
+      Arrays.fill(cells[slot(screenBase + l + i)], c, c + w, 0);
     markLine(l, h);
   }
 
@@ -644,21 +607,16 @@ public class VDUBuffer {
   public void setBufferSize(int amount) {
     if (amount < height) amount = height;
     if (amount < maxBufSize) {
-      char cbuf[][] = new char[amount][width];
-      int abuf[][] = new int[amount][width];
       int copyStart = bufSize - amount < 0 ? 0 : bufSize - amount;
       int copyCount = bufSize - amount < 0 ? bufSize : amount;
-      if (charArray != null)
-        System.arraycopy(charArray, copyStart, cbuf, 0, copyCount);
-      if (charAttributes != null)
-        System.arraycopy(charAttributes, copyStart, abuf, 0, copyCount);
-      charArray = cbuf;
-      charAttributes = abuf;
+      resizeRing(amount, copyStart, copyCount, width);
       bufSize = copyCount;
       screenBase = bufSize - height;
       windowBase = screenBase;
-    }
+    } else if (amount > maxBufSize)
+      resizeRing(amount, 0, bufSize, width);
     maxBufSize = amount;
+    thawLines(screenBase, height);
 
     update[0] = true;
     redraw();
@@ -687,8 +645,6 @@ public class VDUBuffer {
    * @param h of the screen
    */
   public void setScreenSize(int w, int h, boolean broadcast) {
-    char cbuf[][];
-    int abuf[][];
     int bsize = bufSize;
 
     if (w < 1 || h < 1) return;
@@ -711,23 +667,18 @@ public class VDUBuffer {
     if (screenBase + h >= bufSize)
       screenBase = bufSize - h;
 
+    // lines below the screen would never be shown again
+    bufSize = screenBase + h;
+    if (windowBase > screenBase)
+      windowBase = screenBase;
 
-    cbuf = new char[bufSize][w];
-    abuf = new int[bufSize][w];
-
-    if (charArray != null && charAttributes != null) {
-      for (int i = 0; i < bsize && i < bufSize; i++) {
-        System.arraycopy(charArray[i], 0, cbuf[i], 0,
-                         w < width ? w : width);
-        System.arraycopy(charAttributes[i], 0, abuf[i], 0,
-                         w < width ? w : width);
-      }
-    }
+    resizeRing(maxBufSize, 0, cells == null ? 0 :
+                              (bsize < bufSize ? bsize : bufSize), w);
 
-    charArray = cbuf;
-    charAttributes = abuf;
     width = w;
     height = h;
+    clearLines(bsize, bufSize - bsize);
+    thawLines(screenBase, h);
     topMargin = 0;
     bottomMargin = h - 1;
     update = new boolean[h + 1];
@@ -764,6 +715,243 @@ public class VDUBuffer {
       update[l + i + 1] = true;
   }
 
+  /**
+   * Get the cells of a line in the buffer. Each cell holds a character
+   * and its attributes, use cellChar() and cellAttributes() to unpack it.
+   * The array returned is the live storage of that line and valid until
+   * the buffer is scrolled or resized. Lines in the scrollback buffer
+   * are kept compressed and decoded into a cache of one screen height.
+   * The array returned for them should not be modified. Rows a multiple
+   * of height apart share a cache entry, so the array stays valid while
+   * only rows of the same screen full are fetched.
+   * @param line the line in the buffer (not the screen)
+   * @return the cells of that line
+   * @see #cellChar
+   * @see #cellAttributes
+   */
+  public int[] getCells(int line) {
+    int s = slot(line);
+    if (cells[s] != null) return cells[s];
+
+    if (thawed == null || thawed.length != height) {
+      thawed = new int[height][];
+      thawedFrom = new char[height][];
+    }
+    // keyed by row, so a screen full of consecutive rows never collides
+    int i = line % height;
+    if (frozen[s] == null) {
+      // a line that is being moved has neither form for a moment
+      if (thawed[i] == null || thawed[i].length != width)
+        thawed[i] = new int[width];
+      else
+        Arrays.fill(thawed[i], 0);
+      thawedFrom[i] = null;
+      return thawed[i];
+    }
+    if (thawedFrom[i] != frozen[s] || thawed[i].length != width) {
+      if (thawed[i] == null || thawed[i].length != width)
+        thawed[i] = new int[width];
+      thaw(frozen[s], thawed[i]);
+      thawedFrom[i] = frozen[s];
+    }
+    return thawed[i];
+  }
+
+  /**
+   * Pack a character and its attributes into a cell. Only the lower
+   * 16 bits of the attributes are kept.
+   * @param ch the character
+   * @param attributes the character attributes
+   * @return the cell value
+   */
+  public static int cell(char ch, int attributes) {
+    return (attributes << CELL_ATTR_SHIFT) | ch;
+  }
+
+  /**
+   * Get the character stored in a cell.
+   * @param cell the cell value
+   * @see #getCells
+   */
+  public static char cellChar(int cell) {
+    return (char) (cell & CELL_CHAR);
+  }
+
+  /**
+   * Get the attributes stored in a cell.
+   * @param cell the cell value
+   * @see #getCells
+   */
+  public static int cellAttributes(int cell) {
+    return cell >>> CELL_ATTR_SHIFT;
+  }
+
+  /**
+   * Map a line in the buffer to the ring buffer slot holding it.
+   * @param line the line in the buffer
+   * @return the index into cells
+   */
+  protected final int slot(int line) {
+    int s = bufStart + line;
+    return s < cells.length ? s : s - cells.length;
+  }
+
+  /**
+   * Rotate a range of buffer lines downwards. The lines pushed out at the
+   * end of the range reappear at its start. Only the line references are
+   * moved, no line content is copied.
+   * @param line first line of the range
+   * @param n number of lines in the range
+   * @param shift number of lines to rotate down
+   */
+  private void rotateLines(int line, int n, int shift) {
+    if (n <= 1 || (shift %= n) == 0) return;
+    reverseLines(line, line + n - 1);
+    reverseLines(line, line + shift - 1);
+    reverseLines(line + shift, line + n - 1);
+  }
+
+  private void reverseLines(int from, int to) {
+    for (; from < to; from++, to--) {
+      int a = slot(from), b = slot(to);
+      int tmp[] = cells[a];
+      cells[a] = cells[b];
+      cells[b] = tmp;
+      char ftmp[] = frozen[a];
+      frozen[a] = frozen[b];
+      frozen[b] = ftmp;
+    }
+  }
+
+  /**
+   * Blank lines in the buffer, reusing the line storage where possible.
+   * @param line first line to clear
+   * @param n number of lines to clear
+   */
+  private void clearLines(int line, int n) {
+    for (int i = 0; i < n; i++) {
+      int s = slot(line + i);
+      if (cells[s] == null || cells[s].length != width)
+        cells[s] = new int[width];
+      else
+        Arrays.fill(cells[s], 0);
+      frozen[s] = null;
+    }
+  }
+
+  /**
+   * Compress a line moved into the scrollback buffer. Trailing empty cells
+   * are dropped and attributes are stored as runs. Blank lines and lines
+   * equal to the one compressed before share the same compressed form.
+   * The storage of the line is handed over to another line.
+   * @param line the line to compress
+   * @param reuse the line that takes over the storage
+   */
+  private void freezeLine(int line, int reuse) {
+    int s = slot(line), r = slot(reuse);
+    int row[] = cells[s];
+
+    frozen[s] = freeze(row);
+    cells[s] = null;
+    frozen[r] = null;
+    cells[r] = row;
+  }
+
+  /**
+   * Encode a line as attribute runs followed by its characters.
+   * @param row the cells to encode
+   * @return the compressed line
+   */
+  private char[] freeze(int row[]) {
+    int end = row.length;
+    while (end > 0 && row[end - 1] == 0) end--;
+    if (end == 0) return BLANK_LINE;
+
+    int runs = 1;
+    for (int c = 1; c < end; c++)
+      if (cellAttributes(row[c]) != cellAttributes(row[c - 1])) runs++;
+    // layout: number of runs, (attributes, length) per run, characters
+    char enc[] = new char[1 + 2 * runs + end];
+    enc[0] = (char) runs;
+    int run = -1, text = 1 + 2 * runs;
+    for (int c = 0; c < end; c++) {
+      if (c == 0 || cellAttributes(row[c]) != cellAttributes(row[c - 1])) {
+        run += 2;
+        enc[run] = (char) cellAttributes(row[c]);
+      }
+      enc[run + 1]++;
+      enc[text++] = cellChar(row[c]);
+    }
+    if (lastFrozen != null && Arrays.equals(enc, lastFrozen))
+      return lastFrozen;
+    return lastFrozen = enc;
+  }
+
+  /**
+   * Decode a compressed line. Characters that do not fit are dropped.
+   * @param enc the compressed line
+   * @param row the cells to decode into
+   */
+  private static void thaw(char enc[], int row[]) {
+    int runs = enc[0], text = 1 + 2 * runs, c = 0;
+    for (int run = 1; run < 1 + 2 * runs; run += 2) {
+      int attributes = enc[run];
+      for (int n = enc[run + 1]; n > 0 && c < row.length; n--)
+        row[c++] = cell(enc[text++], attributes);
+    }
+    Arrays.fill(row, c, row.length, 0);
+  }
+
+  /**
+   * Make sure lines are not compressed, which is required for all lines
+   * on the screen.
+   * @param line first line
+   * @param n number of lines
+   */
+  private void thawLines(int line, int n) {
+    for (int i = 0; i < n; i++) {
+      int s = slot(line + i);
+      if (cells[s] == null) {
+        cells[s] = new int[width];
+        thaw(frozen[s], cells[s]);
+        frozen[s] = null;
+      }
+    }
+  }
+
+  /**
+   * Move lines of the buffer into a new ring buffer starting at slot 0.
+   * Lines are copied if the width changes, otherwise just moved over.
+   * @param capacity number of slots in the new ring buffer
+   * @param first first buffer line to keep
+   * @param n number of lines to keep
+   * @param w width of the lines in the new ring buffer
+   */
+  private void resizeRing(int capacity, int first, int n, int w) {
+    int buf[][] = new int[capacity][];
+    char fbuf[][] = new char[capacity][];
+    for (int i = 0; i < n; i++) {
+      int s = slot(first + i);
+      if (cells[s] == null || w == width)
+        buf[i] = cells[s];
+      else {
+        buf[i] = new int[w];
+        System.arraycopy(cells[s], 0, buf[i], 0, w < width ? w : width);
+      }
+      fbuf[i] = frozen[s];
+      // compressed lines must not keep text beyond the new width
+      if (w < width && fbuf[i] != null
+          && fbuf[i].length - 1 - 2 * fbuf[i][0] > w) {
+        int row[] = new int[w];
+        thaw(fbuf[i], row);
+        fbuf[i] = freeze(row);
+      }
+    }
+    cells = buf;
+    frozen = fbuf;
+    bufStart = 0;
+  }
+
   private int checkBounds(int value, int lower, int upper) {
     if (value < lower) return lower;
     if (value > upper) return upper;
@@ -32,6 +32,16 @@ public interface VDUDisplay {
   public void redraw();
   public void updateScrollBar();
 
+  /**
+   * Called when lines of the screen have been scrolled. The lines that
+   * come into view are marked for update, the display has to move the
+   * other lines itself or redraw them.
+   * @param top first line of the scrolled region
+   * @param bottom last line of the scrolled region
+   * @param n number of lines scrolled up, negative if scrolled down
+   */
+  public void scrollLines(int top, int bottom, int n);
+
   public void setVDUBuffer(VDUBuffer buffer);
   public VDUBuffer getVDUBuffer();
 }
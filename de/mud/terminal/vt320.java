@@ -27,6 +27,15 @@ package de.mud.terminal;
 
 import java.util.Properties;
 import java.awt.event.KeyEvent;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
 /**
  * Implementation of a VT terminal emulation plus ANSI compatible.
@@ -67,17 +76,177 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     int len = s.length();
     // System.err.println("'"+s+"'");
 
+    if (len > 0) {
+      if (putBuffer == null || putBuffer.length < len)
+        putBuffer = new char[len];
+      s.getChars(0, len, putBuffer, 0);
+      putChars(putBuffer, 0, len);
+    }
+  }
+
+  /** buffer for the characters of the string passed to putString() */
+  private char putBuffer[];
+
+  /**
+   * Put characters at current cursor position. Works like putString()
+   * but takes the characters from an array.
+   * @param b the array holding the characters
+   * @param off offset of the first character
+   * @param len number of characters
+   */
+  public void putChars(char b[], int off, int len) {
     if (len > 0) {
       markLine(R, 1);
-      for (int i = 0; i < len; i++) {
-        // System.err.print(s.charAt(i)+"("+(int)s.charAt(i)+")");
-        putChar(s.charAt(i), false);
-      }
+      emulate(b, off, len);
       setCursorPosition(C, R);
       redraw();
     }
   }
 
+  /**
+   * Put bytes at current cursor position. The bytes are decoded using
+   * the encoding set with setEncoding(). A multi-byte sequence that is
+   * incomplete at the end of the array is kept until the next call.
+   * @param b the array holding the bytes
+   * @param off offset of the first byte
+   * @param len number of bytes
+   * @see #setEncoding
+   */
+  public void putBytes(byte b[], int off, int len) {
+    checkDecoder();
+    if (byteBuffer.remaining() < len)
+      growByteBuffer(len);
+    byteBuffer.put(b, off, len);
+    byteBuffer.flip();
+    decode(byteBuffer);
+    // keep an incomplete sequence for the next call
+    byteBuffer.compact();
+  }
+
+  /**
+   * Put the remaining bytes of a buffer at current cursor position. The
+   * bytes are decoded straight from the buffer, which may be a direct one,
+   * and the buffer position is moved to its limit.
+   * @param b the buffer holding the bytes
+   * @see #putBytes(byte[], int, int)
+   */
+  public void putBytes(ByteBuffer b) {
+    checkDecoder();
+    if (byteBuffer.position() > 0) {
+      // complete the pending sequence first
+      if (byteBuffer.remaining() < b.remaining())
+        growByteBuffer(b.remaining());
+      byteBuffer.put(b);
+      byteBuffer.flip();
+      decode(byteBuffer);
+      byteBuffer.compact();
+      return;
+    }
+    decode(b);
+    if (b.hasRemaining()) {
+      if (byteBuffer.remaining() < b.remaining())
+        growByteBuffer(b.remaining());
+      byteBuffer.put(b);
+    }
+  }
+
+  private void checkDecoder() {
+    if (decoder == null) {
+      try {
+        setEncoding(System.getProperty("file.encoding", "ISO-8859-1"));
+      } catch (UnsupportedEncodingException e) {
+        decoder = newDecoder(Charset.forName("ISO-8859-1"));
+      }
+    }
+  }
+
+  private void growByteBuffer(int len) {
+    ByteBuffer tmp = ByteBuffer.allocate(byteBuffer.position() + len);
+    byteBuffer.flip();
+    byteBuffer = tmp.put(byteBuffer);
+  }
+
+  /** decode as much of the buffer as possible and emulate the result */
+  private void decode(ByteBuffer in) {
+    CoderResult result;
+    do {
+      result = decoder.decode(in, charBuffer, false);
+      putChars(charBuffer.array(), 0, charBuffer.position());
+      charBuffer.clear();
+    } while (result.isOverflow());
+  }
+
+  /**
+   * Set the encoding used by putBytes() to decode the input. Bytes of an
+   * incomplete sequence left from the previous encoding are dropped.
+   * @param encoding name of the encoding
+   * @throws UnsupportedEncodingException if the encoding is not known
+   * @see #putBytes
+   */
+  public void setEncoding(String encoding)
+          throws UnsupportedEncodingException {
+    try {
+      decoder = newDecoder(Charset.forName(encoding));
+    } catch (IllegalCharsetNameException e) {
+      throw new UnsupportedEncodingException(encoding);
+    } catch (UnsupportedCharsetException e) {
+      throw new UnsupportedEncodingException(encoding);
+    }
+    byteBuffer.clear();
+  }
+
+  private static CharsetDecoder newDecoder(Charset charset) {
+    return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /** decoder for the bytes passed to putBytes() */
+  private CharsetDecoder decoder;
+  /** bytes not decoded yet, kept in write mode between calls */
+  private ByteBuffer byteBuffer = ByteBuffer.allocate(256);
+  /** characters decoded by putBytes() */
+  private CharBuffer charBuffer = CharBuffer.allocate(1024);
+
+  /**
+   * Run characters through the emulation. Runs of plain printable
+   * characters are written directly into the line, everything else is
+   * handled by the state machine in putChar().
+   * @param b the array holding the characters
+   * @param off offset of the first character
+   * @param len number of characters
+   */
+  private void emulate(char b[], int off, int len) {
+    int end = off + len;
+    while (off < end) {
+      int columns = getColumns();
+      // the fast path needs a plain character set and no pending state
+      if (term_state != TSTATE_DATA || insertmode != 0 || useibmcharset
+          || onegl >= 0 || C >= columns || !isPlain(b[off])) {
+        putChar(b[off++], false);
+        continue;
+      }
+      int max = off + columns - C, n = off + 1;
+      if (max > end) max = end;
+      while (n < max && isPlain(b[n])) n++;
+      putChars(C, R, b, off, n - off, attributes);
+      C += n - off;
+      lastwaslf = 0;
+      off = n;
+    }
+  }
+
+  /**
+   * Check if a character is printed as is in the current state.
+   * @param c the character
+   * @return true if no mapping or control function applies
+   */
+  private boolean isPlain(char c) {
+    if (c >= ' ' && c < 127)
+      return !usedcharsets || gx[gl] == 'A' || gx[gl] == 'B';
+    return c >= 160 && !usedcharsets;
+  }
+
   protected void sendTelnetCommand(byte cmd) {
   }
 